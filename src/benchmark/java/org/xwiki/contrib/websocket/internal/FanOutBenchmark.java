@@ -0,0 +1,135 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+/**
+ * Measures the cost of sending the same message to many WebSockets, either as a string (encoded for each WebSocket)
+ * or as a shared buffer (encoded once, as done for the room broadcasts).
+ * 
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FanOutBenchmark
+{
+    @Param({ "1", "100", "1000" })
+    private int webSocketCount;
+
+    @Param({ "256" })
+    private int messageSize;
+
+    private EmbeddedChannel[] channels;
+
+    private NettyWebSocket[] webSockets;
+
+    private String message;
+
+    private ByteBuf sharedMessage;
+
+    /**
+     * Creates the WebSockets.
+     * 
+     * @throws Exception if the benchmark support can't be created
+     */
+    @Setup
+    public void setUp() throws Exception
+    {
+        WebSocketBenchmarkSupport support = new WebSocketBenchmarkSupport(webSocket -> {
+        });
+        this.channels = new EmbeddedChannel[this.webSocketCount];
+        this.webSockets = new NettyWebSocket[this.webSocketCount];
+        for (int i = 0; i < this.webSocketCount; i++) {
+            this.channels[i] = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+            this.webSockets[i] = new NettyWebSocket(this.channels[i], support.getConfig(), support.getMetrics());
+        }
+
+        this.message = StringUtils.repeat('a', this.messageSize);
+        this.sharedMessage = Unpooled.copiedBuffer(this.message, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Closes the WebSockets.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        for (EmbeddedChannel channel : this.channels) {
+            channel.finishAndReleaseAll();
+        }
+        this.sharedMessage.release();
+    }
+
+    /**
+     * Sends the message as a string to each WebSocket.
+     */
+    @Benchmark
+    public void sendString()
+    {
+        for (NettyWebSocket webSocket : this.webSockets) {
+            webSocket.send(this.message);
+        }
+        releaseOutbound();
+    }
+
+    /**
+     * Sends the same buffer to each WebSocket.
+     */
+    @Benchmark
+    public void sendSharedBuffer()
+    {
+        for (NettyWebSocket webSocket : this.webSockets) {
+            webSocket.send(this.sharedMessage, true);
+        }
+        releaseOutbound();
+    }
+
+    private void releaseOutbound()
+    {
+        for (EmbeddedChannel channel : this.channels) {
+            channel.releaseOutbound();
+        }
+    }
+}
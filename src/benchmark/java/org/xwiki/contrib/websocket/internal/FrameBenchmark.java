@@ -0,0 +1,129 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+/**
+ * Measures the throughput of the inbound frame handling, from the frame decoding to the {@code onMessage} callback,
+ * for single frame messages and for fragmented messages that have to be reassembled.
+ * 
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FrameBenchmark
+{
+    private static final int FRAGMENTS = 8;
+
+    @Param({ "64", "1024", "16384" })
+    private int messageSize;
+
+    private EmbeddedChannel channel;
+
+    private ByteBuf singleFrame;
+
+    private ByteBuf fragmentedMessage;
+
+    private int receivedMessages;
+
+    /**
+     * Opens the WebSocket connection and encodes the messages.
+     * 
+     * @throws Exception if the request handler can't be created
+     */
+    @Setup
+    public void setUp() throws Exception
+    {
+        WebSocketBenchmarkSupport support = new WebSocketBenchmarkSupport(
+            webSocket -> webSocket.onMessage(message -> this.receivedMessages++));
+        this.channel = support.newChannel();
+        support.handshake(this.channel);
+
+        String message = StringUtils.repeat('a', this.messageSize);
+        this.singleFrame = WebSocketBenchmarkSupport.encodeClientFrames(new TextWebSocketFrame(message));
+
+        int fragmentSize = Math.max(1, this.messageSize / FRAGMENTS);
+        WebSocketFrame[] fragments = new WebSocketFrame[FRAGMENTS];
+        for (int i = 0; i < FRAGMENTS; i++) {
+            String fragment = message.substring(Math.min(i * fragmentSize, this.messageSize),
+                i == FRAGMENTS - 1 ? this.messageSize : Math.min((i + 1) * fragmentSize, this.messageSize));
+            boolean last = i == FRAGMENTS - 1;
+            fragments[i] = i == 0 ? new TextWebSocketFrame(false, 0, fragment)
+                : new ContinuationWebSocketFrame(last, 0, fragment);
+        }
+        this.fragmentedMessage = WebSocketBenchmarkSupport.encodeClientFrames(fragments);
+    }
+
+    /**
+     * Closes the WebSocket connection.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        this.channel.finishAndReleaseAll();
+        this.singleFrame.release();
+        this.fragmentedMessage.release();
+    }
+
+    /**
+     * @return the number of received messages
+     */
+    @Benchmark
+    public int singleFrame()
+    {
+        this.channel.writeInbound(this.singleFrame.retainedDuplicate());
+        return this.receivedMessages;
+    }
+
+    /**
+     * @return the number of received messages
+     */
+    @Benchmark
+    public int fragmentedMessage()
+    {
+        this.channel.writeInbound(this.fragmentedMessage.retainedDuplicate());
+        return this.receivedMessages;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+
+/**
+ * Measures the cost of a WebSocket handshake: HTTP decoding, request parsing, handler resolution, upgrade response and
+ * pipeline reconfiguration. The XWiki context initialization is mocked.
+ * 
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HandshakeBenchmark
+{
+    private WebSocketBenchmarkSupport support;
+
+    /**
+     * Prepares the benchmark.
+     * 
+     * @throws Exception if the request handler can't be created
+     */
+    @Setup
+    public void setUp() throws Exception
+    {
+        this.support = new WebSocketBenchmarkSupport(webSocket -> {
+        });
+    }
+
+    /**
+     * @return whether the connection is open after the handshake
+     * @throws Exception if the request handler can't be created
+     */
+    @Benchmark
+    public boolean handshake() throws Exception
+    {
+        EmbeddedChannel channel = this.support.newChannel();
+        this.support.handshake(channel);
+        boolean open = channel.isOpen();
+        channel.finishAndReleaseAll();
+        return open;
+    }
+}
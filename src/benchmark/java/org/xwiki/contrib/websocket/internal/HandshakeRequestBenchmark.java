@@ -0,0 +1,113 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+
+/**
+ * Measures the creation of the XWiki request from a typical browser handshake request. Run it with the GC profiler
+ * (as done by the {@code benchmark} profile) and compare the {@code gc.alloc.rate.norm} of the different access
+ * patterns: the cookies, the query string parameters and the path are decoded only when they are read.
+ * 
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HandshakeRequestBenchmark
+{
+    /**
+     * What the benchmarked code reads from the request: {@code none} (like most handlers), {@code cookies} (like the
+     * authentication) or {@code all} (cookies, parameters and path).
+     */
+    @Param({ "none", "cookies", "all" })
+    private String access;
+
+    private FullHttpRequest request;
+
+    private EmbeddedChannel channel;
+
+    /**
+     * Prepares the benchmark.
+     */
+    @Setup
+    public void setUp()
+    {
+        this.request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET,
+            "/xwiki/websocket/xwiki/" + WebSocketBenchmarkSupport.HANDLER + "?room=main&version=2");
+        this.request.headers().add("Host", "localhost:8093");
+        this.request.headers().add("User-Agent",
+            "Mozilla/5.0 (X11; Ubuntu; Linux x86_64; rv:81.0) Gecko/20100101 Firefox/81.0");
+        this.request.headers().add("Accept-Language", "en-US,en;q=0.5");
+        this.request.headers().add("Sec-WebSocket-Version", "13");
+        this.request.headers().add("Origin", "http://localhost:8080");
+        this.request.headers().add("Sec-WebSocket-Extensions", "permessage-deflate");
+        this.request.headers().add("Sec-WebSocket-Key", "dGhlIHNhbXBsZSBub25jZQ==");
+        this.request.headers().add("Connection", "keep-alive, Upgrade");
+        this.request.headers().add("Cookie", "JSESSIONID=ABCDEF0123456789ABCDEF0123456789; "
+            + "username=\"nZeRiKGqqe36Sp4rFI7MjQ--\"; password=\"eSHnEpJAXqkFIKhkiXV5wQ--\"; rememberme=\"false\"");
+        this.request.headers().add("Upgrade", "websocket");
+        this.channel = new EmbeddedChannel();
+    }
+
+    /**
+     * @return the created request, after reading what the benchmark parameter asks for
+     * @throws Exception if the request URI is not valid
+     */
+    @Benchmark
+    public Object createRequest() throws Exception
+    {
+        NettyXWikiWebSocketRequest xwikiRequest = new NettyXWikiWebSocketRequest(this.request, this.channel);
+        switch (this.access) {
+            case "all":
+                xwikiRequest.getParameter("room");
+                xwikiRequest.getPathInfo();
+                xwikiRequest.getCookie("JSESSIONID");
+                break;
+            case "cookies":
+                xwikiRequest.getCookie("JSESSIONID");
+                break;
+            default:
+                break;
+        }
+        return xwikiRequest;
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketClientHandshakerFactory;
+import io.netty.handler.codec.http.websocketx.WebSocketClientProtocolHandler;
+import io.netty.handler.codec.http.websocketx.WebSocketVersion;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+
+/**
+ * Starts a WebSocket server with an echo handler (the XWiki dependencies are mocked) and drives many local clients
+ * against it, then reports the throughput, the round-trip latency percentiles and the heap usage. The options are
+ * passed as {@code key=value} arguments, see {@link #DEFAULTS}. Maven passes the {@code loadtest.args} property as a
+ * single argument so an argument can also hold several whitespace separated options:
+ * 
+ * <pre>
+ * mvn test-compile exec:exec@loadtest -Pbenchmark -Dloadtest.args="clients=5000 messageSize=1024 rate=5"
+ * </pre>
+ * 
+ * @version $Id$
+ */
+public final class LoadTest
+{
+    private static final Map<String, String> DEFAULTS = new HashMap<>();
+
+    static {
+        // The number of concurrent clients.
+        DEFAULTS.put("clients", "1000");
+        // The size of the messages, in characters.
+        DEFAULTS.put("messageSize", "256");
+        // The number of messages sent per second by each client.
+        DEFAULTS.put("rate", "10");
+        // The number of frames of each message.
+        DEFAULTS.put("fragments", "1");
+        // The duration of the test, in seconds.
+        DEFAULTS.put("duration", "60");
+        DEFAULTS.put("ssl", "false");
+        DEFAULTS.put("port", "8093");
+    }
+
+    private static final char TIMESTAMP_SEPARATOR = ':';
+
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    private final int clients;
+
+    private final int messageSize;
+
+    private final int rate;
+
+    private final int fragments;
+
+    private final int duration;
+
+    private final boolean ssl;
+
+    private final int port;
+
+    private final AtomicInteger connectedClients = new AtomicInteger();
+
+    private final AtomicInteger failedClients = new AtomicInteger();
+
+    private final AtomicLong sentMessages = new AtomicLong();
+
+    private final List<long[]> latencies = Collections.synchronizedList(new ArrayList<>());
+
+    private final AtomicLong latencyCount = new AtomicLong();
+
+    /**
+     * Records the round-trip latencies of one client. Each client is used by a single event loop thread.
+     */
+    private final class Client extends SimpleChannelInboundHandler<TextWebSocketFrame>
+    {
+        private final String padding;
+
+        private long[] clientLatencies = new long[1024];
+
+        private int clientLatencyCount;
+
+        Client(String padding)
+        {
+            this.padding = padding;
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext context, Object event) throws Exception
+        {
+            if (event == WebSocketClientProtocolHandler.ClientHandshakeStateEvent.HANDSHAKE_COMPLETE) {
+                connectedClients.incrementAndGet();
+                long period = TimeUnit.SECONDS.toNanos(1) / Math.max(1, rate);
+                // Spread the messages of the different clients over time.
+                long initialDelay = ThreadLocalRandom.current().nextLong(period);
+                context.executor().scheduleAtFixedRate(() -> send(context), initialDelay, period,
+                    TimeUnit.NANOSECONDS);
+            }
+            context.fireUserEventTriggered(event);
+        }
+
+        private void send(ChannelHandlerContext context)
+        {
+            String message = String.valueOf(System.nanoTime()) + TIMESTAMP_SEPARATOR + this.padding;
+            if (fragments <= 1) {
+                context.writeAndFlush(new TextWebSocketFrame(message));
+            } else {
+                int fragmentSize = Math.max(1, message.length() / fragments);
+                for (int i = 0; i < fragments; i++) {
+                    boolean last = i == fragments - 1;
+                    String fragment = message.substring(Math.min(i * fragmentSize, message.length()),
+                        last ? message.length() : Math.min((i + 1) * fragmentSize, message.length()));
+                    context.write(i == 0 ? new TextWebSocketFrame(false, 0, fragment)
+                        : new ContinuationWebSocketFrame(last, 0, fragment));
+                }
+                context.flush();
+            }
+            sentMessages.incrementAndGet();
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext context, TextWebSocketFrame frame)
+        {
+            String message = frame.text();
+            long timestamp = Long.parseLong(message.substring(0, message.indexOf(TIMESTAMP_SEPARATOR)));
+            if (this.clientLatencyCount == this.clientLatencies.length) {
+                this.clientLatencies = Arrays.copyOf(this.clientLatencies, this.clientLatencyCount * 2);
+            }
+            this.clientLatencies[this.clientLatencyCount++] = System.nanoTime() - timestamp;
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext context) throws Exception
+        {
+            latencies.add(Arrays.copyOf(this.clientLatencies, this.clientLatencyCount));
+            latencyCount.addAndGet(this.clientLatencyCount);
+            context.fireChannelInactive();
+        }
+    }
+
+    private LoadTest(Map<String, String> options)
+    {
+        this.clients = Integer.parseInt(options.get("clients"));
+        this.messageSize = Integer.parseInt(options.get("messageSize"));
+        this.rate = Integer.parseInt(options.get("rate"));
+        this.fragments = Integer.parseInt(options.get("fragments"));
+        this.duration = Integer.parseInt(options.get("duration"));
+        this.ssl = Boolean.parseBoolean(options.get("ssl"));
+        this.port = Integer.parseInt(options.get("port"));
+    }
+
+    /**
+     * Runs the load test.
+     * 
+     * @param args the options, as {@code key=value} pairs, possibly several per argument separated by whitespace
+     * @throws Exception if the load test fails
+     */
+    public static void main(String[] args) throws Exception
+    {
+        Map<String, String> options = new HashMap<>(DEFAULTS);
+        for (String arg : args) {
+            // Splitting on whitespace also skips the empty argument passed when loadtest.args is not set.
+            for (String value : StringUtils.split(arg)) {
+                String[] option = StringUtils.split(value, "=", 2);
+                if (option.length != 2 || !DEFAULTS.containsKey(option[0])) {
+                    throw new IllegalArgumentException(String.format(
+                        "Invalid option [%s], the supported options are %s.", value, DEFAULTS.keySet()));
+                }
+                options.put(option[0], option[1]);
+            }
+        }
+        new LoadTest(options).run();
+    }
+
+    private void run() throws Exception
+    {
+        WebSocketBenchmarkSupport support =
+            new WebSocketBenchmarkSupport(webSocket -> webSocket.onMessage(webSocket::send));
+        support.useThreadPools();
+        NettyWebSocketService server = support.startServer(this.port, this.ssl);
+        EventLoopGroup group = new NioEventLoopGroup();
+        try {
+            connectClients(group);
+            long start = System.nanoTime();
+            for (int second = 1; second <= this.duration; second++) {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+                if (second % 10 == 0) {
+                    System.out.printf("%ds: %d connected, %d failed, %d messages sent%n", second,
+                        this.connectedClients.get(), this.failedClients.get(), this.sentMessages.get());
+                }
+            }
+            long heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            group.shutdownGracefully().syncUninterruptibly();
+            report(System.nanoTime() - start, heapUsed, support.getMetrics());
+        } finally {
+            group.shutdownGracefully();
+            server.dispose();
+        }
+    }
+
+    private void connectClients(EventLoopGroup group) throws Exception
+    {
+        SslContext sslContext =
+            this.ssl ? SslContextBuilder.forClient().trustManager(InsecureTrustManagerFactory.INSTANCE).build() : null;
+        URI uri = new URI(String.format("%s://localhost:%d/xwiki/websocket/xwiki/%s", this.ssl ? "wss" : "ws",
+            this.port, WebSocketBenchmarkSupport.HANDLER));
+        String padding = StringUtils.repeat('a', Math.max(0, this.messageSize - 20));
+
+        Bootstrap bootstrap = new Bootstrap().group(group).channel(NioSocketChannel.class)
+            .handler(new ChannelInitializer<SocketChannel>()
+            {
+                @Override
+                protected void initChannel(SocketChannel channel)
+                {
+                    ChannelPipeline pipeline = channel.pipeline();
+                    if (sslContext != null) {
+                        pipeline.addLast(sslContext.newHandler(channel.alloc(), uri.getHost(), uri.getPort()));
+                    }
+                    pipeline.addLast(new HttpClientCodec());
+                    pipeline.addLast(new HttpObjectAggregator(8192));
+                    pipeline.addLast(new WebSocketClientProtocolHandler(WebSocketClientHandshakerFactory
+                        .newHandshaker(uri, WebSocketVersion.V13, null, false, new DefaultHttpHeaders())));
+                    pipeline.addLast(new Client(padding));
+                }
+            });
+
+        for (int i = 0; i < this.clients; i++) {
+            bootstrap.connect(uri.getHost(), uri.getPort()).addListener(future -> {
+                if (!future.isSuccess()) {
+                    this.failedClients.incrementAndGet();
+                }
+            });
+        }
+    }
+
+    private void report(long elapsedNanos, long heapUsed, WebSocketHandlerMetrics metrics)
+    {
+        long[] allLatencies = new long[(int) this.latencyCount.get()];
+        int offset = 0;
+        synchronized (this.latencies) {
+            for (long[] clientLatencies : this.latencies) {
+                System.arraycopy(clientLatencies, 0, allLatencies, offset, clientLatencies.length);
+                offset += clientLatencies.length;
+            }
+        }
+        Arrays.sort(allLatencies);
+
+        double seconds = elapsedNanos / NANOS_PER_MILLI / 1000;
+        System.out.printf("Clients: %d connected, %d failed%n", this.connectedClients.get(), this.failedClients.get());
+        System.out.printf("Messages: %d sent, %d received, %.0f round trips/s%n", this.sentMessages.get(),
+            allLatencies.length, allLatencies.length / seconds);
+        System.out.printf("Latency (ms): p50 %.2f, p99 %.2f, p999 %.2f, max %.2f%n", percentile(allLatencies, 0.5),
+            percentile(allLatencies, 0.99), percentile(allLatencies, 0.999), percentile(allLatencies, 1));
+        System.out.printf("Server: %d bytes received, %d bytes sent, mean callback time %.3f ms, %d errors%n",
+            metrics.getInboundBytes(), metrics.getOutboundBytes(), metrics.getCallbackTime().getMean(),
+            metrics.getErrors());
+        // The clients run in the same JVM as the server.
+        System.out.printf("Heap used (server and clients): %d MB%n", heapUsed >> 20);
+    }
+
+    private double percentile(long[] sortedValues, double percentile)
+    {
+        if (sortedValues.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sortedValues.length) - 1;
+        return sortedValues[Math.max(0, Math.min(index, sortedValues.length - 1))] / NANOS_PER_MILLI;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.inject.Provider;
+
+import org.mockito.Answers;
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.contrib.websocket.WebSocketConfig;
+import org.xwiki.contrib.websocket.WebSocketHandler;
+import org.xwiki.test.mockito.MockitoComponentManager;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
+
+import com.xpn.xwiki.XWikiContext;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.websocketx.WebSocket13FrameEncoder;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Creates {@link NettyWebSocketRequestHandler} instances whose XWiki dependencies are mocked, in order to benchmark
+ * the WebSocket code in isolation, through an {@link EmbeddedChannel} or a real server. The handler callbacks are
+ * executed inline by default so that each benchmark operation is synchronous.
+ * 
+ * @version $Id$
+ */
+final class WebSocketBenchmarkSupport
+{
+    /**
+     * The hint of the benchmarked handler.
+     */
+    static final String HANDLER = "benchmark";
+
+    private static final String WIKI = "xwiki";
+
+    private static final String HANDSHAKE_REQUEST = "GET /xwiki/websocket/" + WIKI + "/" + HANDLER + " HTTP/1.1\r\n"
+        + "Host: localhost:8093\r\n" + "Upgrade: websocket\r\n" + "Connection: Upgrade\r\n"
+        + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n" + "Sec-WebSocket-Version: 13\r\n\r\n";
+
+    private final MockitoComponentManager componentManager = new MockitoComponentManager();
+
+    /**
+     * Use the default configuration, except for the values that are not defined by default.
+     */
+    private final WebSocketConfig config = mock(WebSocketConfig.class, Answers.CALLS_REAL_METHODS);
+
+    private final WebSocketHandlerMetrics metrics = new WebSocketHandlerMetrics(WIKI, HANDLER);
+
+    private final ByteBuf handshakeRequest =
+        Unpooled.unreleasableBuffer(Unpooled.copiedBuffer(HANDSHAKE_REQUEST, StandardCharsets.US_ASCII));
+
+    WebSocketBenchmarkSupport(WebSocketHandler handler) throws Exception
+    {
+        doReturn(false).when(this.config).sslEnabled();
+        doReturn(1 << 20).when(this.config).maxFrameSize();
+        doReturn(WebSocketHandlerExecutor.MODE_INLINE).when(this.config).getHandlerExecutionMode();
+        doReturn(0).when(this.config).getHandshakeThreads();
+        doReturn(false).when(this.config).isHandlerContextManaged();
+        this.componentManager.registerComponent(WebSocketConfig.class, this.config);
+
+        this.componentManager.registerMockComponent(WebSocketContextInitializer.class);
+        this.componentManager.registerMockComponent(WebSocketConnectionLimiter.class);
+        WebSocketHandlerCache handlerCache = this.componentManager.registerMockComponent(WebSocketHandlerCache.class);
+        when(handlerCache.getHandler(HANDLER)).thenReturn(handler);
+        WebSocketMetrics webSocketMetrics = this.componentManager.registerMockComponent(WebSocketMetrics.class);
+        when(webSocketMetrics.getHandlerMetrics(anyString(), anyString())).thenReturn(this.metrics);
+        Provider<XWikiContext> xcontextProvider = this.componentManager
+            .registerMockComponent(new DefaultParameterizedType(null, Provider.class, XWikiContext.class));
+        XWikiContext xcontext = mock(XWikiContext.class);
+        when(xcontext.getWikiId()).thenReturn(WIKI);
+        when(xcontextProvider.get()).thenReturn(xcontext);
+        WikiDescriptorManager wikiDescriptorManager =
+            this.componentManager.registerMockComponent(WikiDescriptorManager.class);
+        when(wikiDescriptorManager.exists(WIKI)).thenReturn(true);
+
+        this.componentManager.registerComponent(WebSocketHandlerExecutor.class);
+        this.componentManager.registerComponent(NettyWebSocketRequestHandler.class);
+    }
+
+    /**
+     * Executes the handshakes and the handler callbacks on thread pools, as done by default, instead of inline.
+     */
+    void useThreadPools()
+    {
+        doCallRealMethod().when(this.config).getHandlerExecutionMode();
+        doCallRealMethod().when(this.config).getHandshakeThreads();
+    }
+
+    /**
+     * Starts a WebSocket server that uses the benchmarked handler.
+     * 
+     * @param port the port to listen to
+     * @param ssl whether to use TLS (with a self-signed certificate)
+     * @return the started server, that needs to be disposed
+     * @throws Exception if the server fails to start
+     */
+    NettyWebSocketService startServer(int port, boolean ssl) throws Exception
+    {
+        doReturn(ssl).when(this.config).sslEnabled();
+        doReturn("localhost").when(this.config).getBindTo();
+        doReturn(port).when(this.config).getPort();
+        this.componentManager.registerComponent(NettyWebSocketService.class);
+        return this.componentManager.getInstance(NettyWebSocketService.class);
+    }
+
+    /**
+     * @return the configuration used by the benchmarked components
+     */
+    WebSocketConfig getConfig()
+    {
+        return this.config;
+    }
+
+    /**
+     * @return the metrics of the benchmarked handler
+     */
+    WebSocketHandlerMetrics getMetrics()
+    {
+        return this.metrics;
+    }
+
+    /**
+     * @return a new channel, with the same pipeline as the WebSocket server, before the handshake
+     * @throws Exception if the request handler fails to be created
+     */
+    EmbeddedChannel newChannel() throws Exception
+    {
+        return new EmbeddedChannel(new HttpServerCodec(),
+            new HttpObjectAggregator(NettyWebSocketRequestHandler.MAX_HANDSHAKE_CONTENT_LENGTH),
+            this.componentManager.<NettyWebSocketRequestHandler>getInstance(NettyWebSocketRequestHandler.class));
+    }
+
+    /**
+     * Performs the WebSocket handshake on the given channel.
+     * 
+     * @param channel the channel created with {@link #newChannel()}
+     */
+    void handshake(EmbeddedChannel channel)
+    {
+        channel.writeInbound(this.handshakeRequest.duplicate());
+        channel.releaseOutbound();
+    }
+
+    /**
+     * Encodes the given frames as a client would send them (i.e. masked).
+     * 
+     * @param frames the frames to encode
+     * @return the encoded frames, that can be replayed using {@link ByteBuf#retainedDuplicate()}
+     */
+    static ByteBuf encodeClientFrames(WebSocketFrame... frames)
+    {
+        EmbeddedChannel encoder = new EmbeddedChannel(new WebSocket13FrameEncoder(true));
+        ByteBuf encoded = Unpooled.buffer();
+        for (WebSocketFrame frame : frames) {
+            encoder.writeOutbound(frame);
+            for (ByteBuf chunk = encoder.readOutbound(); chunk != null; chunk = encoder.readOutbound()) {
+                encoded.writeBytes(chunk);
+                chunk.release();
+            }
+        }
+        encoder.finishAndReleaseAll();
+        return encoded;
+    }
+}
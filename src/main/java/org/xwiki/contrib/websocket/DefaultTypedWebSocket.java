@@ -0,0 +1,89 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * {@link TypedWebSocket} implementation based only on the methods of {@link WebSocket}, used by the default
+ * implementation of {@link WebSocket#as(WebSocketCodec)}. The received text messages are encoded back to UTF-8 before
+ * being decoded.
+ * 
+ * @param <T> the type of messages
+ * @version $Id$
+ * @since 1.10
+ */
+final class DefaultTypedWebSocket<T> implements TypedWebSocket<T>
+{
+    private final WebSocket webSocket;
+
+    private final WebSocketCodec<T> codec;
+
+    DefaultTypedWebSocket(WebSocket webSocket, WebSocketCodec<T> codec)
+    {
+        this.webSocket = webSocket;
+        this.codec = codec;
+    }
+
+    @Override
+    public void send(T message)
+    {
+        this.webSocket.send(prepare(message));
+    }
+
+    @Override
+    public WebSocketMessage prepare(T message)
+    {
+        try {
+            return new WebSocketMessage(this.codec.encode(message), this.codec.isText());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to encode the WebSocket message.", e);
+        }
+    }
+
+    @Override
+    public void onMessage(Consumer<T> messageHandler)
+    {
+        if (this.codec.isText()) {
+            this.webSocket.onMessage(message -> messageHandler.accept(decode(StandardCharsets.UTF_8.encode(message))));
+        } else {
+            this.webSocket.onBinaryMessage(message -> messageHandler.accept(decode(message)));
+        }
+    }
+
+    @Override
+    public WebSocket getWebSocket()
+    {
+        return this.webSocket;
+    }
+
+    private T decode(ByteBuffer message)
+    {
+        try {
+            return this.codec.decode(message);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to decode the WebSocket message.", e);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket;
+
+import java.util.function.Consumer;
+
+/**
+ * A view of a {@link WebSocket} that sends and receives messages of a given type, converted by a
+ * {@link WebSocketCodec}, see {@link WebSocket#as(WebSocketCodec)}.
+ * 
+ * @param <T> the type of messages
+ * @version $Id$
+ * @since 1.10
+ */
+public interface TypedWebSocket<T>
+{
+    /**
+     * Encodes and sends a message.
+     * 
+     * @param message the message to send
+     */
+    void send(T message);
+
+    /**
+     * Encodes a message once, in order to send it many times (e.g. to many WebSockets) using
+     * {@link WebSocket#send(WebSocketMessage)}.
+     * 
+     * @param message the message to encode
+     * @return the encoded message
+     */
+    WebSocketMessage prepare(T message);
+
+    /**
+     * Execute some code each time a message is received and decoded. The messages are decoded directly from the
+     * network buffer. The message handler is registered on the underlying WebSocket and can be removed by passing it
+     * to {@link WebSocket#removeCallback(Object)}. Only the messages of the type supported by the codec (text or
+     * binary, see {@link WebSocketCodec#isText()}) are decoded, the other messages are ignored.
+     * 
+     * @param messageHandler the code that handles the decoded message
+     */
+    void onMessage(Consumer<T> messageHandler);
+
+    /**
+     * @return the underlying WebSocket
+     */
+    WebSocket getWebSocket();
+}
@@ -19,8 +19,14 @@
  */
 package org.xwiki.contrib.websocket;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
+import org.xwiki.stability.Unstable;
+
 /**
  * The interface used by a {@link WebSocketHandler} to communicate with the client (receive and send back messages).
  * 
@@ -35,6 +41,79 @@ public interface WebSocket
      */
     void send(String message);
 
+    /**
+     * Sends a message on this WebSocket and notifies the caller when the message has been written to the network.
+     * <p>
+     * The default implementation sends the message with {@link #send(String)} and returns a future that is already
+     * completed, i.e. it only notifies that the message was handed over to the WebSocket.
+     * 
+     * @param message the message to send
+     * @return a future that completes when the message has been written, or completes exceptionally if the message
+     *         couldn't be sent (e.g. because the connection was closed or the client is too far behind)
+     * @since 1.10
+     */
+    default CompletableFuture<Void> sendAsync(String message)
+    {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            send(message);
+            future.complete(null);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Sends a binary message on this WebSocket and notifies the caller when the message has been written to the
+     * network. The given buffer is not copied so it must not be modified after this call.
+     * <p>
+     * The default implementation sends the message with {@link #sendBinary(ByteBuffer)} and returns a future that is
+     * already completed, i.e. it only notifies that the message was handed over to the WebSocket.
+     * 
+     * @param message the message to send
+     * @return a future that completes when the message has been written, or completes exceptionally if the message
+     *         couldn't be sent (e.g. because the connection was closed or the client is too far behind)
+     * @since 1.10
+     */
+    default CompletableFuture<Void> sendBinaryAsync(ByteBuffer message)
+    {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            sendBinary(message);
+            future.complete(null);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * @return {@code true} if the messages sent on this WebSocket can be written to the network right away,
+     *         {@code false} if too many messages are waiting to be written because the client can't keep up (see
+     *         {@link #onWritabilityChanged(Consumer)})
+     * @since 1.10
+     */
+    default boolean isWritable()
+    {
+        return true;
+    }
+
+    /**
+     * Execute some code when this WebSocket stops or starts again being writable (see {@link #isWritable()}). Use it
+     * to stop sending messages to a client that can't keep up, and to resume when it caught up.
+     * 
+     * <p>
+     * The default implementation does nothing since, by default, a WebSocket is always writable.
+     * 
+     * @param callback the code to execute, receiving the new writability state
+     * @since 1.10
+     */
+    default void onWritabilityChanged(Consumer<Boolean> callback)
+    {
+        // The writability never changes by default.
+    }
+
     /**
      * Execute some code each time a message is received on this WebSocket.
      * 
@@ -42,10 +121,120 @@ public interface WebSocket
      */
     void onMessage(Consumer<String> messageHandler);
 
+    /**
+     * Sends a binary message on this WebSocket. The given buffer is not copied so it must not be modified after this
+     * call.
+     * <p>
+     * Binary messages can't be sent using the other methods of this interface, so implementations that support them
+     * must override this method. The default implementation throws an {@link UnsupportedOperationException}.
+     * 
+     * @param message the message to send
+     * @throws UnsupportedOperationException if this WebSocket doesn't support binary messages
+     * @since 1.10
+     */
+    @Unstable
+    default void sendBinary(ByteBuffer message)
+    {
+        throw new UnsupportedOperationException("This WebSocket doesn't support binary messages.");
+    }
+
+    /**
+     * Execute some code each time a binary message is received on this WebSocket. The message handler receives a
+     * read-only view of the network buffer, which is reused after the message handler returns, so copy the data if
+     * you need to keep it.
+     * 
+     * <p>
+     * The default implementation does nothing, which is right for implementations that don't support binary messages
+     * since they never receive any.
+     * 
+     * @param messageHandler the code that handles the received binary message
+     * @since 1.10
+     */
+    default void onBinaryMessage(Consumer<ByteBuffer> messageHandler)
+    {
+        // Binary messages are not supported by default so there's nothing to listen to.
+    }
+
+    /**
+     * Execute some code each time a message fragment is received on this WebSocket, without waiting for the entire
+     * message to be received. Messages that are not fragmented are passed as a single fragment. The fragment handler
+     * receives a read-only view of the raw bytes (UTF-8 encoded for text messages), which is reused after the fragment
+     * handler returns, and whether the fragment is the last one of the message.
+     * 
+     * <p>
+     * The default implementation relies on {@link #onMessage(Consumer)} and {@link #onBinaryMessage(Consumer)}, and
+     * thus passes each message as a single fragment once it has been entirely received.
+     * 
+     * @param fragmentHandler the code that handles the received message fragments
+     * @since 1.10
+     */
+    default void onMessageStream(BiConsumer<ByteBuffer, Boolean> fragmentHandler)
+    {
+        onMessage(message -> fragmentHandler.accept(StandardCharsets.UTF_8.encode(message).asReadOnlyBuffer(), true));
+        onBinaryMessage(message -> fragmentHandler.accept(message, true));
+    }
+
     /**
      * Execute some code when the client disconnects from this WebSocket.
      * 
      * @param callback the code to execute when the client disconnects
      */
     void onDisconnect(Runnable callback);
+
+    /**
+     * Removes a callback registered on this WebSocket (e.g. with {@link #onMessage(Consumer)},
+     * {@link #onDisconnect(Runnable)} or {@link TypedWebSocket#onMessage(Consumer)} on a view of this WebSocket), so
+     * that it's not executed anymore. The callbacks are compared by identity and, if the same callback was registered
+     * several times, only one registration is removed. This can be called from any thread, including from the
+     * callback itself.
+     * <p>
+     * Removing a callback requires keeping track of the registered callbacks, which the other methods of this
+     * interface don't do, so implementations that support it must override this method. The default implementation
+     * throws an {@link UnsupportedOperationException}.
+     * 
+     * @param callback the callback to remove, as it was passed when registered
+     * @return {@code true} if the callback was removed, {@code false} if it wasn't registered on this WebSocket
+     * @throws UnsupportedOperationException if this WebSocket doesn't support removing callbacks
+     * @since 1.10
+     */
+    @Unstable
+    default boolean removeCallback(Object callback)
+    {
+        throw new UnsupportedOperationException("This WebSocket doesn't support removing callbacks.");
+    }
+
+    /**
+     * Sends an encoded message on this WebSocket. The message is not copied, so the same message can be sent many
+     * times, to different WebSockets, without being encoded again (see {@link TypedWebSocket#prepare(Object)}).
+     * 
+     * @param message the message to send
+     * @since 1.10
+     */
+    default void send(WebSocketMessage message)
+    {
+        if (message.isText()) {
+            send(StandardCharsets.UTF_8.decode(message.getContent()).toString());
+        } else {
+            sendBinary(message.getContent());
+        }
+    }
+
+    /**
+     * Creates a view of this WebSocket that sends and receives messages of a given type, converted by the given
+     * codec.
+     * <p>
+     * The default implementation relies on the other methods of this interface: the messages are sent with
+     * {@link #send(WebSocketMessage)} and received with {@link #onMessage(Consumer)} and
+     * {@link #onBinaryMessage(Consumer)}, so the received text messages are encoded back to UTF-8 before being
+     * decoded.
+     * 
+     * @param <T> the type of messages
+     * @param codec the codec used to convert the messages
+     * @return the typed view of this WebSocket
+     * @since 1.10
+     */
+    default <T> TypedWebSocket<T> as(WebSocketCodec<T> codec)
+    {
+        return new DefaultTypedWebSocket<>(this, codec);
+    }
 }
@@ -0,0 +1,58 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Converts the WebSocket messages from and to a given type, see {@link WebSocket#as(WebSocketCodec)}.
+ * 
+ * @param <T> the type of messages
+ * @version $Id$
+ * @since 1.10
+ */
+public interface WebSocketCodec<T>
+{
+    /**
+     * @return {@code true} if the encoded messages are sent as text messages (in which case they must be UTF-8
+     *         encoded), {@code false} if they are sent as binary messages
+     */
+    boolean isText();
+
+    /**
+     * Decodes a received message. The given buffer is a view of the network buffer, which is reused after this call,
+     * so it must not be modified or kept.
+     * 
+     * @param message the raw bytes of the received message (UTF-8 encoded for text messages)
+     * @return the decoded message
+     * @throws IOException if the message can't be decoded
+     */
+    T decode(ByteBuffer message) throws IOException;
+
+    /**
+     * Encodes a message to send.
+     * 
+     * @param message the message to encode
+     * @return the raw bytes of the message (UTF-8 encoded for text messages)
+     * @throws IOException if the message can't be encoded
+     */
+    ByteBuffer encode(T message) throws IOException;
+}
@@ -19,6 +19,10 @@
  */
 package org.xwiki.contrib.websocket;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import org.xwiki.component.annotation.Role;
 
 /**
@@ -68,4 +72,449 @@ public interface WebSocketConfig
      *         biggest real-time document you will edit; default is 20MB
      */
     int maxFrameSize();
+
+    /**
+     * @return how the {@link WebSocketHandler} callbacks are executed: {@code inline} on the network I/O threads that
+     *         are shared by many connections, {@code pool} on a dedicated bounded thread pool or {@code virtual} on
+     *         virtual threads (requires Java 21 or later, otherwise falls back to {@code inline}); default is
+     *         {@code pool}
+     * @since 1.10
+     */
+    default String getHandlerExecutionMode()
+    {
+        return "pool";
+    }
+
+    /**
+     * @return the number of threads used to execute the {@link WebSocketHandler} callbacks when the execution mode is
+     *         {@code pool}; default is 4 times the number of available processors
+     * @since 1.10
+     */
+    default int getHandlerThreads()
+    {
+        return Runtime.getRuntime().availableProcessors() * 4;
+    }
+
+    /**
+     * @return the maximum number of connections that can wait for a free handler thread before new callbacks are
+     *         rejected (and the corresponding connections closed); default is 10000
+     * @since 1.10
+     */
+    default int getHandlerQueueSize()
+    {
+        return 10000;
+    }
+
+    /**
+     * @return the maximum number of callbacks (e.g. received messages) that can wait to be executed for a single
+     *         connection before the connection is closed; default is 1000
+     * @since 1.10
+     */
+    default int getMaxPendingMessages()
+    {
+        return 1000;
+    }
+
+    /**
+     * @return {@code true} if the {@link WebSocketHandler} callbacks are executed in the XWiki context of the
+     *         WebSocket handshake (wiki, authenticated user, request), {@code false} if they are executed without XWiki
+     *         context, which is faster for handlers that don't use the XWiki API; default is {@code true}
+     * @since 1.10
+     */
+    default boolean isHandlerContextManaged()
+    {
+        return true;
+    }
+
+    /**
+     * @return the Netty transport used by the WebSocket server: {@code nio} (portable), {@code epoll} (Linux native)
+     *         or {@code auto} to use the native transport when available and fall back to {@code nio} otherwise;
+     *         default is {@code auto}
+     * @since 1.10
+     */
+    default String getTransport()
+    {
+        return "auto";
+    }
+
+    /**
+     * @return whether to bind the server port with {@code SO_REUSEPORT}, using one accept loop per boss thread; only
+     *         supported by the native transport; default is {@code false}
+     * @since 1.10
+     */
+    default boolean isReusePortEnabled()
+    {
+        return false;
+    }
+
+    /**
+     * @return the number of threads accepting new connections; default is 1
+     * @since 1.10
+     */
+    default int getBossThreads()
+    {
+        return 1;
+    }
+
+    /**
+     * @return the number of threads handling the network I/O of the established connections; default is 0, which
+     *         means twice the number of available processors
+     * @since 1.10
+     */
+    default int getWorkerThreads()
+    {
+        return 0;
+    }
+
+    /**
+     * @return the prefix used to name the WebSocket threads, in order to distinguish them from the servlet container
+     *         threads (e.g. in profilers or thread dumps); default is {@code websocket}
+     * @since 1.10
+     */
+    default String getThreadNamePrefix()
+    {
+        return "websocket";
+    }
+
+    /**
+     * @return the hint of the {@link WebSocketThreadAffinity} component used to pin the WebSocket network I/O threads
+     *         to specific CPUs; default is {@code null}, which means threads are not pinned
+     * @since 1.10
+     */
+    default String getThreadAffinity()
+    {
+        return null;
+    }
+
+    /**
+     * @return whether to negotiate the permessage-deflate extension (RFC 7692) with the clients that support it, in
+     *         order to compress the messages; default is {@code false}
+     * @since 1.10
+     */
+    default boolean isCompressionEnabled()
+    {
+        return false;
+    }
+
+    /**
+     * @return the compression level, between 0 (no compression) and 9 (best compression); default is 6
+     * @since 1.10
+     */
+    default int getCompressionLevel()
+    {
+        return 6;
+    }
+
+    /**
+     * @return the size (as a power of 2) of the compression window that the clients are asked to use, between 8 and
+     *         15; values other than 15 require the JZlib library; default is 15
+     * @since 1.10
+     */
+    default int getCompressionWindowBits()
+    {
+        return 15;
+    }
+
+    /**
+     * @return whether to keep the compression context between messages, which improves the compression of similar
+     *         messages but keeps a compression buffer in memory for each connection; default is {@code true}
+     * @since 1.10
+     */
+    default boolean isCompressionContextTakeover()
+    {
+        return true;
+    }
+
+    /**
+     * @return the minimum size (in bytes) of a message for it to be compressed; smaller messages are sent
+     *         uncompressed; default is 256
+     * @since 1.10
+     */
+    default int getCompressionThreshold()
+    {
+        return 256;
+    }
+
+    /**
+     * @return whether to coalesce the flushes of the sent messages, in order to reduce the number of system calls
+     *         when many messages are sent in a short period of time; default is {@code true}
+     * @since 1.10
+     */
+    default boolean isWriteBatchingEnabled()
+    {
+        return true;
+    }
+
+    /**
+     * @return the number of pending messages that triggers an immediate flush when write batching is enabled; default
+     *         is 256
+     * @since 1.10
+     */
+    default int getWriteBatchingMaxMessages()
+    {
+        return 256;
+    }
+
+    /**
+     * @return the number of pending bytes that triggers an immediate flush when write batching is enabled; default is
+     *         65536
+     * @since 1.10
+     */
+    default int getWriteBatchingMaxBytes()
+    {
+        return 65536;
+    }
+
+    /**
+     * @return the number of bytes waiting to be written to a client above which the WebSocket becomes not writable;
+     *         default is 65536
+     * @since 1.10
+     */
+    default int getWriteBufferHighWaterMark()
+    {
+        return 65536;
+    }
+
+    /**
+     * @return the number of bytes waiting to be written to a client below which a not writable WebSocket becomes
+     *         writable again; default is 32768
+     * @since 1.10
+     */
+    default int getWriteBufferLowWaterMark()
+    {
+        return 32768;
+    }
+
+    /**
+     * @return the number of bytes waiting to be written to a client above which the client is considered too far
+     *         behind and the backpressure policy is applied; keep this bigger than the biggest message you send;
+     *         default is 32MB
+     * @since 1.10
+     */
+    default long getMaxPendingBytes()
+    {
+        return 32L * 1024 * 1024;
+    }
+
+    /**
+     * @return what to do when a message is sent to a client that is too far behind: {@code none} (keep buffering),
+     *         {@code drop} (drop the message), {@code block} (block the caller until the client catches up) or
+     *         {@code close} (close the connection); default is {@code close}; note that {@code block} can't block
+     *         the network I/O thread, so it behaves like {@code close} when the message is sent from it (e.g. with
+     *         the {@code inline} handler execution mode) and for the messages broadcast to a room
+     * @since 1.10
+     */
+    default String getBackpressurePolicy()
+    {
+        return "close";
+    }
+
+    /**
+     * @return the maximum number of milliseconds to wait for a client to catch up when the backpressure policy is
+     *         {@code block}, before closing the connection; default is 30000
+     * @since 1.10
+     */
+    default long getBackpressureBlockTimeout()
+    {
+        return 30000;
+    }
+
+    /**
+     * @return the hint of the relay used to forward the room messages to the other nodes of the cluster ({@code tcp}
+     *         or {@code loopback} for tests); default is {@code null}, which means the room messages are delivered only
+     *         to the WebSockets connected to this node
+     * @since 1.10
+     */
+    default String getClusterRelay()
+    {
+        return null;
+    }
+
+    /**
+     * @return the port number the {@code tcp} cluster relay listens to; default is 8094
+     * @since 1.10
+     */
+    default int getClusterPort()
+    {
+        return 8094;
+    }
+
+    /**
+     * @return the other nodes of the cluster the {@code tcp} cluster relay connects to, as {@code host:port}
+     * @since 1.10
+     */
+    default List<String> getClusterPeers()
+    {
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return the address the {@code tcp} cluster relay listens to, which should be the loopback or a private network
+     *         interface since the relayed messages are not encrypted; default is {@code 127.0.0.1}
+     * @since 1.10
+     */
+    default String getClusterBindTo()
+    {
+        return "127.0.0.1";
+    }
+
+    /**
+     * @return the secret shared by the nodes of the cluster, used by the {@code tcp} cluster relay to authenticate the
+     *         nodes that connect to it before accepting their messages; default is {@code null}, in which case the
+     *         {@code tcp} cluster relay is not started
+     * @since 1.10
+     */
+    default String getClusterSecret()
+    {
+        return null;
+    }
+
+    /**
+     * @return whether to cache the result of the user authentication performed during the WebSocket handshake, keyed
+     *         by the wiki, the client address and the values of the authentication cookies; default is {@code true}
+     * @since 1.10
+     */
+    default boolean isAuthenticationCacheEnabled()
+    {
+        return true;
+    }
+
+    /**
+     * @return the maximum number of cached authentication results; default is 10000
+     * @since 1.10
+     */
+    default int getAuthenticationCacheSize()
+    {
+        return 10000;
+    }
+
+    /**
+     * @return the number of seconds an authentication result is cached; default is 300
+     * @since 1.10
+     */
+    default int getAuthenticationCacheTimeToLive()
+    {
+        return 300;
+    }
+
+    /**
+     * @return the names of the cookies that authenticate the user; the authentication result is cached only for the
+     *         handshake requests that have at least one of these cookies; default is the cookies used by the XWiki
+     *         form authentication
+     * @since 1.10
+     */
+    default List<String> getAuthenticationCookies()
+    {
+        return Arrays.asList("username", "password", "validation", "rememberme");
+    }
+
+    /**
+     * @return the maximum number of WebSocket handshakes (user authentication, handler lookup and handler connection)
+     *         processed concurrently, on a dedicated thread pool; 0 to process the handshakes like the other handler
+     *         callbacks; default is twice the number of available processors
+     * @since 1.10
+     */
+    default int getHandshakeThreads()
+    {
+        return Runtime.getRuntime().availableProcessors() * 2;
+    }
+
+    /**
+     * @return the maximum number of WebSocket handshakes waiting to be processed; additional handshakes are rejected
+     *         with a 503 (Service Unavailable) HTTP response; default is 1000
+     * @since 1.10
+     */
+    default int getHandshakeQueueSize()
+    {
+        return 1000;
+    }
+
+    /**
+     * @return the number of seconds after which the clients whose handshake was rejected should retry, sent in the
+     *         {@code Retry-After} HTTP header; default is 5
+     * @since 1.10
+     */
+    default int getHandshakeRetryAfter()
+    {
+        return 5;
+    }
+
+    /**
+     * @return the number of seconds without receiving anything after which the server pings the client to check that
+     *         the connection is still alive (connections that didn't send their handshake request are closed
+     *         directly); 0 to disable; default is 60
+     * @since 1.10
+     */
+    default int getIdleReadTimeout()
+    {
+        return 60;
+    }
+
+    /**
+     * @return the number of seconds without sending anything after which the server pings the client to keep the
+     *         connection alive (e.g. through proxies that drop idle connections); 0 to disable; default is 0
+     * @since 1.10
+     */
+    default int getIdleWriteTimeout()
+    {
+        return 0;
+    }
+
+    /**
+     * @return the number of seconds to wait for the client to answer a ping, before closing the connection; default is
+     *         30
+     * @since 1.10
+     */
+    default int getPongTimeout()
+    {
+        return 30;
+    }
+
+    /**
+     * @return the maximum number of WebSocket connections; 0 for no limit; default is 0
+     * @since 1.10
+     */
+    default int getMaxConnections()
+    {
+        return 0;
+    }
+
+    /**
+     * @return the maximum number of WebSocket connections from the same remote address; 0 for no limit; default is 0
+     * @since 1.10
+     */
+    default int getMaxConnectionsPerAddress()
+    {
+        return 0;
+    }
+
+    /**
+     * @return the maximum number of WebSocket connections of the same authenticated user; additional handshakes are
+     *         rejected with a 429 (Too Many Requests) HTTP response; 0 for no limit; default is 0
+     * @since 1.10
+     */
+    default int getMaxConnectionsPerUser()
+    {
+        return 0;
+    }
+
+    /**
+     * @return the maximum number of WebSocket frames received per second on a connection, above which the server stops
+     *         reading from the connection for a while; 0 for no limit; default is 0
+     * @since 1.10
+     */
+    default int getMessageRateLimit()
+    {
+        return 0;
+    }
+
+    /**
+     * @return the maximum number of bytes received per second on a WebSocket connection, above which the server stops
+     *         reading from the connection for a while; 0 for no limit; default is 0
+     * @since 1.10
+     */
+    default long getByteRateLimit()
+    {
+        return 0;
+    }
 }
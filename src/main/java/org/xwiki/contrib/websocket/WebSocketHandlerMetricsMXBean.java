@@ -0,0 +1,89 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket;
+
+/**
+ * The metrics of a {@link WebSocketHandler} on a given wiki, exposed through JMX.
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+public interface WebSocketHandlerMetricsMXBean
+{
+    /**
+     * @return the wiki on which the handler is used
+     */
+    String getWiki();
+
+    /**
+     * @return the hint of the handler component
+     */
+    String getHandler();
+
+    /**
+     * @return the number of open connections
+     */
+    long getActiveConnections();
+
+    /**
+     * @return the number of connections opened since the server started
+     */
+    long getConnections();
+
+    /**
+     * @return the number of exceptions thrown by the handler callbacks
+     */
+    long getErrors();
+
+    /**
+     * @return the number of received messages
+     */
+    long getInboundMessages();
+
+    /**
+     * @return the number of received bytes (message payload)
+     */
+    long getInboundBytes();
+
+    /**
+     * @return the number of sent messages
+     */
+    long getOutboundMessages();
+
+    /**
+     * @return the number of sent bytes (message payload, before compression)
+     */
+    long getOutboundBytes();
+
+    /**
+     * @return the number of bytes waiting to be sent to the clients
+     */
+    long getQueuedOutboundBytes();
+
+    /**
+     * @return the duration of the handshakes, from the request reception to the end of the handler connection
+     */
+    WebSocketLatencyHistogram getHandshakeTime();
+
+    /**
+     * @return the execution time of the handler callbacks
+     */
+    WebSocketLatencyHistogram getCallbackTime();
+}
@@ -0,0 +1,52 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket;
+
+import java.util.Map;
+
+/**
+ * The distribution of a duration measured by the WebSocket server (e.g. the handshake time), exposed through JMX and
+ * the script service.
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+public interface WebSocketLatencyHistogram
+{
+    /**
+     * @return the number of recorded durations
+     */
+    long getCount();
+
+    /**
+     * @return the mean of the recorded durations, in milliseconds
+     */
+    double getMean();
+
+    /**
+     * @return the maximum recorded duration, in milliseconds
+     */
+    double getMax();
+
+    /**
+     * @return the number of recorded durations less than or equal to each bucket upper bound, in milliseconds
+     */
+    Map<String, Long> getBuckets();
+}
@@ -0,0 +1,74 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An encoded WebSocket message, that can be sent many times, possibly to different WebSockets, without being encoded
+ * or copied again, see {@link WebSocket#send(WebSocketMessage)}.
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+public final class WebSocketMessage
+{
+    private final ByteBuffer content;
+
+    private final boolean text;
+
+    /**
+     * Creates a new message. The given buffer is not copied so it must not be modified afterwards.
+     * 
+     * @param content the raw bytes of the message (UTF-8 encoded for text messages)
+     * @param text {@code true} for a text message, {@code false} for a binary message
+     */
+    public WebSocketMessage(ByteBuffer content, boolean text)
+    {
+        this.content = content.asReadOnlyBuffer();
+        this.text = text;
+    }
+
+    /**
+     * @param message the text of the message
+     * @return the encoded text message
+     */
+    public static WebSocketMessage text(String message)
+    {
+        return new WebSocketMessage(ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)), true);
+    }
+
+    /**
+     * @return a read-only view of the raw bytes of the message (UTF-8 encoded for text messages)
+     */
+    public ByteBuffer getContent()
+    {
+        return this.content.duplicate();
+    }
+
+    /**
+     * @return {@code true} for a text message, {@code false} for a binary message
+     */
+    public boolean isText()
+    {
+        return this.text;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+import org.xwiki.component.annotation.Role;
+
+/**
+ * Groups WebSockets in named rooms and sends messages to all the members of a room. Use it instead of keeping your own
+ * collections of {@link WebSocket}s: the messages are encoded only once for all the members of the room and the
+ * WebSockets are removed automatically from their rooms when the client disconnects.
+ * <p>
+ * The messages are sent to the members one after another, so a broadcast never waits for a slow member: with the
+ * {@code block} backpressure policy (see {@link WebSocketConfig#getBackpressurePolicy()}) the connection of a member
+ * that is too far behind is closed instead of delaying the members after it.
+ * 
+ * <pre>
+ * &#64;Override
+ * public void onConnect(WebSocket webSocket)
+ * {
+ *     this.roomManager.join("chat", webSocket);
+ *     webSocket.onMessage(message -&#62; this.roomManager.broadcast("chat", message, webSocket));
+ * }
+ * </pre>
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+@Role
+public interface WebSocketRoomManager
+{
+    /**
+     * Adds a WebSocket to a room, creating the room if needed.
+     * 
+     * @param room the room name
+     * @param webSocket the WebSocket to add
+     */
+    void join(String room, WebSocket webSocket);
+
+    /**
+     * Removes a WebSocket from a room. The room is deleted when its last member leaves.
+     * 
+     * @param room the room name
+     * @param webSocket the WebSocket to remove
+     */
+    void leave(String room, WebSocket webSocket);
+
+    /**
+     * @param room the room name
+     * @return the WebSockets that are currently members of the specified room
+     */
+    Collection<WebSocket> getMembers(String room);
+
+    /**
+     * Sends a message to all the members of a room.
+     * 
+     * @param room the room name
+     * @param message the message to send
+     * @return the number of members the message was sent to
+     */
+    default int broadcast(String room, String message)
+    {
+        return broadcast(room, message, null);
+    }
+
+    /**
+     * Sends a message to all the members of a room except one (usually the sender).
+     * 
+     * @param room the room name
+     * @param message the message to send
+     * @param excluded the WebSocket that shouldn't receive the message, {@code null} to send it to all members
+     * @return the number of members the message was sent to
+     */
+    int broadcast(String room, String message, WebSocket excluded);
+
+    /**
+     * Sends a binary message to all the members of a room except one (usually the sender). The given buffer is not
+     * copied so it must not be modified after this call.
+     * 
+     * @param room the room name
+     * @param message the message to send
+     * @param excluded the WebSocket that shouldn't receive the message, {@code null} to send it to all members
+     * @return the number of members the message was sent to
+     */
+    int broadcastBinary(String room, ByteBuffer message, WebSocket excluded);
+}
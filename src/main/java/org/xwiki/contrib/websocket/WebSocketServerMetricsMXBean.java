@@ -0,0 +1,69 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket;
+
+/**
+ * The metrics of the WebSocket server, exposed through JMX.
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+public interface WebSocketServerMetricsMXBean
+{
+    /**
+     * @return the number of open connections, for all the handlers
+     */
+    long getActiveConnections();
+
+    /**
+     * @return the number of bytes waiting to be sent to the clients, for all the handlers
+     */
+    long getQueuedOutboundBytes();
+
+    /**
+     * @return the number of connections rejected because a connection limit was reached
+     */
+    long getRejectedConnections();
+
+    /**
+     * @return the number of connections closed because they were idle
+     */
+    long getReapedConnections();
+
+    /**
+     * @return the number of handshakes authenticated using the authentication cache
+     */
+    long getAuthenticationCacheHits();
+
+    /**
+     * @return the number of handshakes that had to authenticate the user
+     */
+    long getAuthenticationCacheMisses();
+
+    /**
+     * @return the number of handler lookups resolved using the handler cache
+     */
+    long getHandlerCacheHits();
+
+    /**
+     * @return the number of handler lookups that required a component manager lookup
+     */
+    long getHandlerCacheMisses();
+}
@@ -0,0 +1,42 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket;
+
+import org.xwiki.component.annotation.Role;
+
+/**
+ * Implement this role in order to pin the WebSocket network I/O threads to specific CPUs (e.g. using a native thread
+ * affinity library). The implementation to use is selected with the {@code websocket.threadAffinity} configuration
+ * property, which holds the component hint.
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+@Role
+public interface WebSocketThreadAffinity
+{
+    /**
+     * Called from a newly started WebSocket thread, before it starts processing any work.
+     * 
+     * @param groupName the name of the thread group (e.g. {@code websocket-boss} or {@code websocket-worker})
+     * @param threadIndex the index of the thread inside its group, starting from 0
+     */
+    void bind(String groupName, int threadIndex);
+}
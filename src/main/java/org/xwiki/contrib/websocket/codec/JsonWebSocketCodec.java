@@ -0,0 +1,90 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.xwiki.contrib.websocket.WebSocketCodec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+/**
+ * Converts the WebSocket text messages from and to JSON, using Jackson. The messages are parsed directly from their
+ * UTF-8 bytes, without creating an intermediate string.
+ * 
+ * @param <T> the type of messages
+ * @version $Id$
+ * @since 1.10
+ */
+public class JsonWebSocketCodec<T> implements WebSocketCodec<T>
+{
+    private final ObjectReader reader;
+
+    private final ObjectWriter writer;
+
+    /**
+     * Creates a codec using a default object mapper.
+     * 
+     * @param type the type of messages
+     */
+    public JsonWebSocketCodec(Class<T> type)
+    {
+        this(new ObjectMapper(), type);
+    }
+
+    /**
+     * Creates a codec using the given object mapper.
+     * 
+     * @param objectMapper the object mapper used to read and write JSON
+     * @param type the type of messages
+     */
+    public JsonWebSocketCodec(ObjectMapper objectMapper, Class<T> type)
+    {
+        this.reader = objectMapper.readerFor(type);
+        this.writer = objectMapper.writerFor(type);
+    }
+
+    @Override
+    public boolean isText()
+    {
+        return true;
+    }
+
+    @Override
+    public T decode(ByteBuffer message) throws IOException
+    {
+        if (message.hasArray()) {
+            return this.reader.readValue(message.array(), message.arrayOffset() + message.position(),
+                message.remaining());
+        } else {
+            return this.reader.readValue(new ByteBufferBackedInputStream(message));
+        }
+    }
+
+    @Override
+    public ByteBuffer encode(T message) throws IOException
+    {
+        return ByteBuffer.wrap(this.writer.writeValueAsBytes(message));
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.codec;
+
+import java.nio.ByteBuffer;
+
+import org.xwiki.contrib.websocket.WebSocketCodec;
+
+/**
+ * Passes the raw bytes of the WebSocket messages as they are, without copying them. The messages are sent as binary
+ * messages. The received messages are views of the network buffer, which is reused after the message handler returns,
+ * so copy the data if you need to keep it.
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+public class RawWebSocketCodec implements WebSocketCodec<ByteBuffer>
+{
+    @Override
+    public boolean isText()
+    {
+        return false;
+    }
+
+    @Override
+    public ByteBuffer decode(ByteBuffer message)
+    {
+        return message.asReadOnlyBuffer();
+    }
+
+    @Override
+    public ByteBuffer encode(ByteBuffer message)
+    {
+        return message;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+/**
+ * Closes the new connections that exceed the limits enforced by the {@link WebSocketConnectionLimiter}. This handler
+ * is placed first in the pipeline so that the rejected connections cost as little as possible (no TLS handshake, no
+ * HTTP decoding).
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+@Sharable
+public class ConnectionLimitHandler extends ChannelInboundHandlerAdapter
+{
+    private final WebSocketConnectionLimiter limiter;
+
+    /**
+     * Creates a new handler.
+     * 
+     * @param limiter the component that counts the connections
+     */
+    public ConnectionLimitHandler(WebSocketConnectionLimiter limiter)
+    {
+        this.limiter = limiter;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext context) throws Exception
+    {
+        InetAddress address = getAddress(context.channel().remoteAddress());
+        if (this.limiter.acquireConnection(address)) {
+            context.channel().closeFuture().addListener(future -> this.limiter.releaseConnection(address));
+            context.pipeline().remove(this);
+            context.fireChannelActive();
+        } else {
+            context.close();
+        }
+    }
+
+    private InetAddress getAddress(SocketAddress socketAddress)
+    {
+        return socketAddress instanceof InetSocketAddress ? ((InetSocketAddress) socketAddress).getAddress() : null;
+    }
+}
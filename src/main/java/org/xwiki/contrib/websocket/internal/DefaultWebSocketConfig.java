@@ -21,6 +21,7 @@ package org.xwiki.contrib.websocket.internal;
 
 import java.net.URI;
 import java.net.URL;
+import java.util.List;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
@@ -119,4 +120,283 @@ public class DefaultWebSocketConfig implements WebSocketConfig
     {
         return this.cs.getProperty("websocket.maxFrameSize", 20000000);
     }
+
+    @Override
+    public String getHandlerExecutionMode()
+    {
+        return this.cs.getProperty("websocket.handler.execution", WebSocketConfig.super.getHandlerExecutionMode());
+    }
+
+    @Override
+    public int getHandlerThreads()
+    {
+        return this.cs.getProperty("websocket.handler.threads", WebSocketConfig.super.getHandlerThreads());
+    }
+
+    @Override
+    public int getHandlerQueueSize()
+    {
+        return this.cs.getProperty("websocket.handler.queueSize", WebSocketConfig.super.getHandlerQueueSize());
+    }
+
+    @Override
+    public int getMaxPendingMessages()
+    {
+        return this.cs.getProperty("websocket.handler.maxPendingMessages",
+            WebSocketConfig.super.getMaxPendingMessages());
+    }
+
+    @Override
+    public boolean isHandlerContextManaged()
+    {
+        return this.cs.getProperty("websocket.handler.managedContext", WebSocketConfig.super.isHandlerContextManaged());
+    }
+
+    @Override
+    public String getTransport()
+    {
+        return this.cs.getProperty("websocket.transport", WebSocketConfig.super.getTransport());
+    }
+
+    @Override
+    public boolean isReusePortEnabled()
+    {
+        return this.cs.getProperty("websocket.reusePort", WebSocketConfig.super.isReusePortEnabled());
+    }
+
+    @Override
+    public int getBossThreads()
+    {
+        return this.cs.getProperty("websocket.bossThreads", WebSocketConfig.super.getBossThreads());
+    }
+
+    @Override
+    public int getWorkerThreads()
+    {
+        return this.cs.getProperty("websocket.workerThreads", WebSocketConfig.super.getWorkerThreads());
+    }
+
+    @Override
+    public String getThreadNamePrefix()
+    {
+        return this.cs.getProperty("websocket.threadNamePrefix", WebSocketConfig.super.getThreadNamePrefix());
+    }
+
+    @Override
+    public String getThreadAffinity()
+    {
+        return this.cs.getProperty("websocket.threadAffinity", String.class);
+    }
+
+    @Override
+    public boolean isCompressionEnabled()
+    {
+        return this.cs.getProperty("websocket.compression.enable", WebSocketConfig.super.isCompressionEnabled());
+    }
+
+    @Override
+    public int getCompressionLevel()
+    {
+        return this.cs.getProperty("websocket.compression.level", WebSocketConfig.super.getCompressionLevel());
+    }
+
+    @Override
+    public int getCompressionWindowBits()
+    {
+        return this.cs.getProperty("websocket.compression.windowBits",
+            WebSocketConfig.super.getCompressionWindowBits());
+    }
+
+    @Override
+    public boolean isCompressionContextTakeover()
+    {
+        return this.cs.getProperty("websocket.compression.contextTakeover",
+            WebSocketConfig.super.isCompressionContextTakeover());
+    }
+
+    @Override
+    public int getCompressionThreshold()
+    {
+        return this.cs.getProperty("websocket.compression.threshold",
+            WebSocketConfig.super.getCompressionThreshold());
+    }
+
+    @Override
+    public boolean isWriteBatchingEnabled()
+    {
+        return this.cs.getProperty("websocket.writeBatching.enable", WebSocketConfig.super.isWriteBatchingEnabled());
+    }
+
+    @Override
+    public int getWriteBatchingMaxMessages()
+    {
+        return this.cs.getProperty("websocket.writeBatching.maxMessages",
+            WebSocketConfig.super.getWriteBatchingMaxMessages());
+    }
+
+    @Override
+    public int getWriteBatchingMaxBytes()
+    {
+        return this.cs.getProperty("websocket.writeBatching.maxBytes",
+            WebSocketConfig.super.getWriteBatchingMaxBytes());
+    }
+
+    @Override
+    public int getWriteBufferHighWaterMark()
+    {
+        return this.cs.getProperty("websocket.writeBuffer.highWaterMark",
+            WebSocketConfig.super.getWriteBufferHighWaterMark());
+    }
+
+    @Override
+    public int getWriteBufferLowWaterMark()
+    {
+        return this.cs.getProperty("websocket.writeBuffer.lowWaterMark",
+            WebSocketConfig.super.getWriteBufferLowWaterMark());
+    }
+
+    @Override
+    public long getMaxPendingBytes()
+    {
+        return this.cs.getProperty("websocket.backpressure.maxPendingBytes",
+            WebSocketConfig.super.getMaxPendingBytes());
+    }
+
+    @Override
+    public String getBackpressurePolicy()
+    {
+        return this.cs.getProperty("websocket.backpressure.policy", WebSocketConfig.super.getBackpressurePolicy());
+    }
+
+    @Override
+    public long getBackpressureBlockTimeout()
+    {
+        return this.cs.getProperty("websocket.backpressure.blockTimeout",
+            WebSocketConfig.super.getBackpressureBlockTimeout());
+    }
+
+    @Override
+    public String getClusterRelay()
+    {
+        return this.cs.getProperty("websocket.cluster.relay", String.class);
+    }
+
+    @Override
+    public int getClusterPort()
+    {
+        return this.cs.getProperty("websocket.cluster.port", WebSocketConfig.super.getClusterPort());
+    }
+
+    @Override
+    public List<String> getClusterPeers()
+    {
+        List<String> peers = this.cs.getProperty("websocket.cluster.peers", List.class);
+        return peers != null ? peers : WebSocketConfig.super.getClusterPeers();
+    }
+
+    @Override
+    public String getClusterBindTo()
+    {
+        return this.cs.getProperty("websocket.cluster.bindTo", WebSocketConfig.super.getClusterBindTo());
+    }
+
+    @Override
+    public String getClusterSecret()
+    {
+        return this.cs.getProperty("websocket.cluster.secret", String.class);
+    }
+
+    @Override
+    public boolean isAuthenticationCacheEnabled()
+    {
+        return this.cs.getProperty("websocket.authCache.enable", WebSocketConfig.super.isAuthenticationCacheEnabled());
+    }
+
+    @Override
+    public int getAuthenticationCacheSize()
+    {
+        return this.cs.getProperty("websocket.authCache.size", WebSocketConfig.super.getAuthenticationCacheSize());
+    }
+
+    @Override
+    public int getAuthenticationCacheTimeToLive()
+    {
+        return this.cs.getProperty("websocket.authCache.timeToLive",
+            WebSocketConfig.super.getAuthenticationCacheTimeToLive());
+    }
+
+    @Override
+    public List<String> getAuthenticationCookies()
+    {
+        List<String> cookies = this.cs.getProperty("websocket.authCache.cookies", List.class);
+        return cookies != null ? cookies : WebSocketConfig.super.getAuthenticationCookies();
+    }
+
+    @Override
+    public int getHandshakeThreads()
+    {
+        return this.cs.getProperty("websocket.handshake.threads", WebSocketConfig.super.getHandshakeThreads());
+    }
+
+    @Override
+    public int getHandshakeQueueSize()
+    {
+        return this.cs.getProperty("websocket.handshake.queueSize", WebSocketConfig.super.getHandshakeQueueSize());
+    }
+
+    @Override
+    public int getHandshakeRetryAfter()
+    {
+        return this.cs.getProperty("websocket.handshake.retryAfter", WebSocketConfig.super.getHandshakeRetryAfter());
+    }
+
+    @Override
+    public int getIdleReadTimeout()
+    {
+        return this.cs.getProperty("websocket.idle.readTimeout", WebSocketConfig.super.getIdleReadTimeout());
+    }
+
+    @Override
+    public int getIdleWriteTimeout()
+    {
+        return this.cs.getProperty("websocket.idle.writeTimeout", WebSocketConfig.super.getIdleWriteTimeout());
+    }
+
+    @Override
+    public int getPongTimeout()
+    {
+        return this.cs.getProperty("websocket.idle.pongTimeout", WebSocketConfig.super.getPongTimeout());
+    }
+
+    @Override
+    public int getMaxConnections()
+    {
+        return this.cs.getProperty("websocket.limits.maxConnections", WebSocketConfig.super.getMaxConnections());
+    }
+
+    @Override
+    public int getMaxConnectionsPerAddress()
+    {
+        return this.cs.getProperty("websocket.limits.maxConnectionsPerAddress",
+            WebSocketConfig.super.getMaxConnectionsPerAddress());
+    }
+
+    @Override
+    public int getMaxConnectionsPerUser()
+    {
+        return this.cs.getProperty("websocket.limits.maxConnectionsPerUser",
+            WebSocketConfig.super.getMaxConnectionsPerUser());
+    }
+
+    @Override
+    public int getMessageRateLimit()
+    {
+        return this.cs.getProperty("websocket.limits.messageRate", WebSocketConfig.super.getMessageRateLimit());
+    }
+
+    @Override
+    public long getByteRateLimit()
+    {
+        return this.cs.getProperty("websocket.limits.byteRate", WebSocketConfig.super.getByteRateLimit());
+    }
 }
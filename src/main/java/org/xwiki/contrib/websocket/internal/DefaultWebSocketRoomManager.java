@@ -0,0 +1,299 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.contrib.websocket.WebSocket;
+import org.xwiki.contrib.websocket.WebSocketConfig;
+import org.xwiki.contrib.websocket.WebSocketRoomManager;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Default {@link WebSocketRoomManager} implementation. The message is encoded once in a buffer that is shared (without
+ * being copied) by the frames sent to the members of the room. When a {@link WebSocketRelay} is configured the
+ * messages are also forwarded to the other nodes of the cluster.
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+@Component
+@Singleton
+public class DefaultWebSocketRoomManager implements WebSocketRoomManager, Initializable
+{
+    /**
+     * The rooms joined by a WebSocket. It is also the lock used to update the rooms of the WebSocket, so that leaving
+     * all the rooms when the WebSocket disconnects can't run in the middle of a join.
+     */
+    private static final class Membership
+    {
+        private final Set<String> rooms = new HashSet<>();
+
+        /**
+         * Whether the WebSocket left all its rooms because it disconnected.
+         */
+        private boolean left;
+    }
+
+    /**
+     * The number of relayed message identifiers remembered in order to detect duplicates.
+     */
+    private static final int MAX_RECENT_MESSAGES = 10000;
+
+    @Inject
+    private WebSocketConfig config;
+
+    @Inject
+    private ComponentManager componentManager;
+
+    @Inject
+    private Logger logger;
+
+    private final Map<String, Set<WebSocket>> rooms = new ConcurrentHashMap<>();
+
+    /**
+     * The rooms joined by each WebSocket, used to remove the WebSocket from all its rooms when it disconnects.
+     */
+    private final Map<WebSocket, Membership> memberships = new ConcurrentHashMap<>();
+
+    private final Map<String, Boolean> recentMessages = new LinkedHashMap<String, Boolean>()
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest)
+        {
+            return size() > MAX_RECENT_MESSAGES;
+        }
+    };
+
+    private WebSocketRelay relay;
+
+    @Override
+    public void initialize()
+    {
+        String relayHint = this.config.getClusterRelay();
+        if (StringUtils.isNotEmpty(relayHint)) {
+            try {
+                this.relay = this.componentManager.getInstance(WebSocketRelay.class, relayHint);
+                this.relay.start(this::receive);
+            } catch (ComponentLookupException e) {
+                this.logger.warn("Failed to lookup the WebSocket cluster relay [{}]. Room messages won't be sent to "
+                    + "the other cluster nodes. Root cause is [{}].", relayHint, ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+    }
+
+    @Override
+    public void join(String room, WebSocket webSocket)
+    {
+        if (!isOpen(webSocket)) {
+            // The disconnect callbacks have already been called (or are about to be called).
+            return;
+        }
+
+        Membership newMembership = new Membership();
+        Membership membership = this.memberships.putIfAbsent(webSocket, newMembership);
+        if (membership == null) {
+            membership = newMembership;
+            // Registered outside of the map update because the WebSocket may call it right away if it's closing.
+            webSocket.onDisconnect(() -> leaveAll(webSocket));
+        }
+
+        synchronized (membership) {
+            if (membership.left) {
+                // The WebSocket disconnected while joining.
+                return;
+            }
+            membership.rooms.add(room);
+            addMember(room, webSocket);
+        }
+
+        if (!isOpen(webSocket)) {
+            // The WebSocket disconnected after the check above and the disconnect callbacks may have been called before
+            // ours was registered.
+            leaveAll(webSocket);
+        }
+    }
+
+    private boolean isOpen(WebSocket webSocket)
+    {
+        return !(webSocket instanceof NettyWebSocket) || ((NettyWebSocket) webSocket).isOpen();
+    }
+
+    @Override
+    public void leave(String room, WebSocket webSocket)
+    {
+        Membership membership = this.memberships.get(webSocket);
+        if (membership != null) {
+            synchronized (membership) {
+                membership.rooms.remove(room);
+                removeMember(room, webSocket);
+            }
+        }
+    }
+
+    private void leaveAll(WebSocket webSocket)
+    {
+        Membership membership = this.memberships.remove(webSocket);
+        if (membership != null) {
+            synchronized (membership) {
+                membership.left = true;
+                for (String room : membership.rooms) {
+                    removeMember(room, webSocket);
+                }
+                membership.rooms.clear();
+            }
+        }
+    }
+
+    private void addMember(String room, WebSocket webSocket)
+    {
+        // Add the member while the room can't be removed (which happens when its last member leaves).
+        this.rooms.compute(room, (key, members) -> {
+            Set<WebSocket> updatedMembers = members != null ? members : ConcurrentHashMap.newKeySet();
+            updatedMembers.add(webSocket);
+            return updatedMembers;
+        });
+    }
+
+    private void removeMember(String room, WebSocket webSocket)
+    {
+        this.rooms.computeIfPresent(room, (key, members) -> {
+            members.remove(webSocket);
+            return members.isEmpty() ? null : members;
+        });
+    }
+
+    @Override
+    public Collection<WebSocket> getMembers(String room)
+    {
+        Set<WebSocket> members = this.rooms.get(room);
+        return members != null ? Collections.unmodifiableSet(members) : Collections.emptySet();
+    }
+
+    @Override
+    public int broadcast(String room, String message, WebSocket excluded)
+    {
+        // Encode the message only once, for all the members of the room.
+        ByteBuf content = ByteBufUtil.writeUtf8(ByteBufAllocator.DEFAULT, message);
+        try {
+            publish(room, content, true);
+            return broadcastLocally(room, content, true, excluded);
+        } finally {
+            content.release();
+        }
+    }
+
+    @Override
+    public int broadcastBinary(String room, ByteBuffer message, WebSocket excluded)
+    {
+        ByteBuf content = Unpooled.wrappedBuffer(message);
+        try {
+            publish(room, content, false);
+            return broadcastLocally(room, content, false, excluded);
+        } finally {
+            content.release();
+        }
+    }
+
+    private void publish(String room, ByteBuf content, boolean text)
+    {
+        if (this.relay != null) {
+            String id = UUID.randomUUID().toString();
+            remember(id);
+            this.relay.publish(new WebSocketRelayMessage(id, room, text, ByteBufUtil.getBytes(content)));
+        }
+    }
+
+    private void receive(WebSocketRelayMessage message)
+    {
+        // The same message can be received multiple times (e.g. when a node reconnects).
+        if (remember(message.getId())) {
+            ByteBuf content = Unpooled.wrappedBuffer(message.getPayload());
+            try {
+                broadcastLocally(message.getRoom(), content, message.isText(), null);
+            } finally {
+                content.release();
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the message identifier was not seen before, {@code false} otherwise
+     */
+    private boolean remember(String messageId)
+    {
+        synchronized (this.recentMessages) {
+            return this.recentMessages.put(messageId, Boolean.TRUE) == null;
+        }
+    }
+
+    private int broadcastLocally(String room, ByteBuf content, boolean text, WebSocket excluded)
+    {
+        Set<WebSocket> members = this.rooms.get(room);
+        if (members == null) {
+            return 0;
+        }
+
+        int count = 0;
+        for (WebSocket member : members) {
+            if (member != excluded) {
+                send(member, content, text);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void send(WebSocket member, ByteBuf content, boolean text)
+    {
+        if (member instanceof NettyWebSocket) {
+            ((NettyWebSocket) member).send(content, text);
+        } else if (text) {
+            member.send(content.toString(StandardCharsets.UTF_8));
+        } else {
+            member.sendBinary(content.nioBuffer());
+        }
+    }
+}
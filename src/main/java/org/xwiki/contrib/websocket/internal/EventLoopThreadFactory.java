@@ -0,0 +1,79 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.contrib.websocket.WebSocketThreadAffinity;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * Creates named event loop threads, optionally pinned to specific CPUs.
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+public class EventLoopThreadFactory extends DefaultThreadFactory
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventLoopThreadFactory.class);
+
+    private final String groupName;
+
+    private final WebSocketThreadAffinity affinity;
+
+    private final AtomicInteger nextIndex = new AtomicInteger();
+
+    /**
+     * Creates a new thread factory.
+     * 
+     * @param groupName the name of the thread group, used as thread name prefix
+     * @param affinity the strategy used to pin the created threads, {@code null} to not pin them
+     */
+    public EventLoopThreadFactory(String groupName, WebSocketThreadAffinity affinity)
+    {
+        super(groupName);
+
+        this.groupName = groupName;
+        this.affinity = affinity;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable)
+    {
+        if (this.affinity == null) {
+            return super.newThread(runnable);
+        }
+
+        int threadIndex = this.nextIndex.getAndIncrement();
+        return super.newThread(() -> {
+            try {
+                this.affinity.bind(this.groupName, threadIndex);
+            } catch (Exception e) {
+                LOGGER.warn("Failed to set the affinity of thread [{}] from [{}]. Root cause is [{}].", threadIndex,
+                    this.groupName, ExceptionUtils.getRootCauseMessage(e));
+            }
+            runnable.run();
+        });
+    }
+}
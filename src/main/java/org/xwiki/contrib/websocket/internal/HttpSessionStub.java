@@ -37,7 +37,10 @@ public class HttpSessionStub implements HttpSession
 {
     private int maxInactiveInterval;
 
-    private Map<String, Object> attributes = new HashMap<>();
+    /**
+     * Created on demand since most WebSocket connections don't store anything in the session.
+     */
+    private Map<String, Object> attributes = Collections.emptyMap();
 
     @Override
     public long getCreationTime()
@@ -108,6 +111,9 @@ public class HttpSessionStub implements HttpSession
     @Override
     public void setAttribute(String name, Object value)
     {
+        if (this.attributes.isEmpty()) {
+            this.attributes = new HashMap<>();
+        }
         this.attributes.put(name, value);
     }
 
@@ -132,7 +138,7 @@ public class HttpSessionStub implements HttpSession
     @Override
     public void invalidate()
     {
-        this.attributes.clear();
+        this.attributes = Collections.emptyMap();
     }
 
     @Override
@@ -0,0 +1,170 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+
+/**
+ * Reaps the idle connections, based on the events fired by an {@link IdleStateHandler} placed before it in the
+ * pipeline. When nothing is received on a WebSocket connection for a while the server sends a ping and the connection
+ * is closed if nothing (usually the pong) is received before the pong deadline. This way half-open connections (e.g.
+ * from mobile clients that lost the network) don't hold their resources forever. Connections that don't send their
+ * handshake request are closed directly. The periods during which a {@link MessageRateLimitHandler} stops reading
+ * from the connection are not counted as inactivity, since the client can't be heard then.
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+public class IdleConnectionHandler extends ChannelDuplexHandler
+{
+    /**
+     * The WebSocket close status code used when the connection is reaped.
+     */
+    private static final int GOING_AWAY = 1001;
+
+    private final long pongTimeout;
+
+    private final AtomicLong reapedConnections;
+
+    /**
+     * Whether the handshake request has been received.
+     */
+    private boolean requested;
+
+    /**
+     * Whether the handshake has been completed.
+     */
+    private boolean upgraded;
+
+    /**
+     * Whether the connection is not read because the client exceeded its rate limit.
+     */
+    private boolean throttled;
+
+    private ScheduledFuture<?> pongDeadline;
+
+    /**
+     * Creates a new handler.
+     * 
+     * @param pongTimeout the number of milliseconds to wait for a pong (or any other frame) after a ping
+     * @param reapedConnections the counter incremented each time a connection is reaped
+     */
+    public IdleConnectionHandler(long pongTimeout, AtomicLong reapedConnections)
+    {
+        this.pongTimeout = pongTimeout;
+        this.reapedConnections = reapedConnections;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext context, Object message) throws Exception
+    {
+        this.requested = true;
+        cancelPongDeadline();
+        context.fireChannelRead(message);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext context, Object message, ChannelPromise promise) throws Exception
+    {
+        if (message instanceof HttpResponse
+            && HttpResponseStatus.SWITCHING_PROTOCOLS.equals(((HttpResponse) message).status())) {
+            this.upgraded = true;
+        }
+        context.write(message, promise);
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext context, Object event) throws Exception
+    {
+        if (event instanceof IdleStateEvent) {
+            onIdle(context, (IdleStateEvent) event);
+        } else {
+            if (event instanceof MessageRateLimitHandler.ThrottleStateEvent) {
+                this.throttled = event == MessageRateLimitHandler.ThrottleStateEvent.THROTTLED;
+            }
+            context.fireUserEventTriggered(event);
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext context) throws Exception
+    {
+        cancelPongDeadline();
+        context.fireChannelInactive();
+    }
+
+    private void onIdle(ChannelHandlerContext context, IdleStateEvent event)
+    {
+        switch (event.state()) {
+            case READER_IDLE:
+                if (!this.requested) {
+                    reap(context);
+                } else if (this.upgraded && !this.throttled && this.pongDeadline == null) {
+                    context.writeAndFlush(new PingWebSocketFrame());
+                    this.pongDeadline =
+                        context.executor().schedule(() -> reap(context), this.pongTimeout, TimeUnit.MILLISECONDS);
+                }
+                // Otherwise the handshake is in progress, we stopped reading the client because it exceeded its rate
+                // limit or we are already waiting for the pong.
+                break;
+            case WRITER_IDLE:
+                // Keep alive the connection (proxies and NAT devices drop the connections that are idle).
+                if (this.upgraded) {
+                    context.writeAndFlush(new PingWebSocketFrame());
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void reap(ChannelHandlerContext context)
+    {
+        this.pongDeadline = null;
+        this.reapedConnections.incrementAndGet();
+        if (this.upgraded) {
+            context.writeAndFlush(new CloseWebSocketFrame(GOING_AWAY, "Idle timeout"))
+                .addListener(ChannelFutureListener.CLOSE);
+        } else {
+            context.close();
+        }
+    }
+
+    private void cancelPongDeadline()
+    {
+        if (this.pongDeadline != null) {
+            this.pongDeadline.cancel(false);
+            this.pongDeadline = null;
+        }
+    }
+}
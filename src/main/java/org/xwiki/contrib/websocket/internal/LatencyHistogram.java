@@ -0,0 +1,111 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.xwiki.contrib.websocket.WebSocketLatencyHistogram;
+
+/**
+ * Records durations in fixed buckets. Recording is lock-free and cheap enough to be done for each WebSocket message.
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+public class LatencyHistogram implements WebSocketLatencyHistogram
+{
+    /**
+     * The upper bounds of the buckets, in microseconds.
+     */
+    private static final long[] BOUNDS = {50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000,
+        500000, 1000000, 2500000, 5000000, 10000000};
+
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Creates a new empty histogram.
+     */
+    public LatencyHistogram()
+    {
+        for (int i = 0; i < this.buckets.length; i++) {
+            this.buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a duration.
+     * 
+     * @param nanos the duration, in nanoseconds
+     */
+    public void record(long nanos)
+    {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        int index = Arrays.binarySearch(BOUNDS, micros);
+        this.buckets[index >= 0 ? index : -index - 1].increment();
+        this.count.increment();
+        this.sum.add(micros);
+        this.max.accumulate(micros);
+    }
+
+    @Override
+    public long getCount()
+    {
+        return this.count.sum();
+    }
+
+    @Override
+    public double getMean()
+    {
+        long currentCount = this.count.sum();
+        return currentCount > 0 ? this.sum.sum() / MICROS_PER_MILLI / currentCount : 0;
+    }
+
+    @Override
+    public double getMax()
+    {
+        return this.max.get() / MICROS_PER_MILLI;
+    }
+
+    @Override
+    public Map<String, Long> getBuckets()
+    {
+        Map<String, Long> cumulativeBuckets = new LinkedHashMap<>();
+        long cumulativeCount = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            cumulativeCount += this.buckets[i].sum();
+            cumulativeBuckets.put(String.valueOf(BOUNDS[i] / MICROS_PER_MILLI), cumulativeCount);
+        }
+        cumulativeBuckets.put("+Inf", cumulativeCount + this.buckets[BOUNDS.length].sum());
+        return cumulativeBuckets;
+    }
+}
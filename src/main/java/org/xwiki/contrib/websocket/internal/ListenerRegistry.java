@@ -0,0 +1,115 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A list of listeners that can be modified from any thread while being iterated. The listeners are stored in an
+ * immutable array that is replaced (compare-and-set) on each modification, so reading them takes no lock and
+ * allocates nothing, which matters because they are read for each message while they are rarely modified.
+ * 
+ * @param <T> the type of listeners
+ * @version $Id$
+ * @since 1.10
+ */
+public class ListenerRegistry<T>
+{
+    private final T[] empty;
+
+    private final AtomicReference<T[]> listeners;
+
+    /**
+     * Creates a new registry.
+     * 
+     * @param empty an empty array of the listener type, used as the initial list and to create the typed copies of
+     *            the list
+     */
+    public ListenerRegistry(T[] empty)
+    {
+        this.empty = empty;
+        this.listeners = new AtomicReference<>(empty);
+    }
+
+    /**
+     * Adds a listener at the end of the list.
+     * 
+     * @param listener the listener to add
+     */
+    public void add(T listener)
+    {
+        T[] current;
+        T[] updated;
+        do {
+            current = this.listeners.get();
+            updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = listener;
+        } while (!this.listeners.compareAndSet(current, updated));
+    }
+
+    /**
+     * Removes the first occurrence of the given listener.
+     * 
+     * @param listener the listener to remove
+     * @return {@code true} if the listener was removed, {@code false} if it wasn't in the list
+     */
+    public boolean remove(Object listener)
+    {
+        T[] current;
+        T[] updated;
+        do {
+            current = this.listeners.get();
+            int index = indexOf(current, listener);
+            if (index < 0) {
+                return false;
+            }
+            updated = current.length == 1 ? this.empty : Arrays.copyOf(current, current.length - 1);
+            System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+        } while (!this.listeners.compareAndSet(current, updated));
+        return true;
+    }
+
+    /**
+     * @return the listeners, at the time of the call; the returned array must not be modified
+     */
+    public T[] get()
+    {
+        return this.listeners.get();
+    }
+
+    /**
+     * @return {@code true} if there are no listeners, {@code false} otherwise
+     */
+    public boolean isEmpty()
+    {
+        return this.listeners.get().length == 0;
+    }
+
+    private static int indexOf(Object[] array, Object element)
+    {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == element) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.function.Consumer;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+
+/**
+ * {@link WebSocketRelay} implementation that forwards the messages to the other relays of the same JVM. Useful for
+ * testing a cluster of nodes running in the same process.
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+@Component
+@Named("loopback")
+@Singleton
+public class LoopbackWebSocketRelay implements WebSocketRelay, Disposable
+{
+    private static final Set<LoopbackWebSocketRelay> RELAYS = new CopyOnWriteArraySet<>();
+
+    private Consumer<WebSocketRelayMessage> receiver;
+
+    @Override
+    public void start(Consumer<WebSocketRelayMessage> receiver)
+    {
+        this.receiver = receiver;
+        RELAYS.add(this);
+    }
+
+    @Override
+    public void publish(WebSocketRelayMessage message)
+    {
+        for (LoopbackWebSocketRelay relay : RELAYS) {
+            if (relay != this) {
+                relay.receiver.accept(message);
+            }
+        }
+    }
+
+    @Override
+    public void dispose()
+    {
+        RELAYS.remove(this);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+/**
+ * Limits the rate of the WebSocket frames received on a connection, in messages and bytes per second, using token
+ * buckets that can hold one second worth of tokens. When a bucket is empty the handler stops reading from the
+ * connection until enough tokens are available, so a client that sends too much is slowed down by the TCP flow
+ * control before any {@link org.xwiki.contrib.websocket.WebSocketHandler} code runs, without losing messages.
+ * <p>
+ * A {@link ThrottleStateEvent} is fired through the whole pipeline when the handler stops and resumes reading, so that
+ * the handlers placed before it (e.g. {@link IdleConnectionHandler}) don't take the throttled periods for inactivity.
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+public class MessageRateLimitHandler extends ChannelInboundHandlerAdapter
+{
+    /**
+     * The user event fired through the pipeline when the handler stops and resumes reading from the connection.
+     */
+    public enum ThrottleStateEvent
+    {
+        /**
+         * The handler stopped reading from the connection.
+         */
+        THROTTLED,
+
+        /**
+         * The handler resumed reading from the connection.
+         */
+        RESUMED
+    }
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final double messageRate;
+
+    private final double byteRate;
+
+    private double messageTokens;
+
+    private double byteTokens;
+
+    private long lastRefill = System.nanoTime();
+
+    private boolean throttled;
+
+    /**
+     * Creates a new handler.
+     * 
+     * @param messageRate the maximum number of frames received per second, 0 for no limit
+     * @param byteRate the maximum number of bytes received per second, 0 for no limit
+     */
+    public MessageRateLimitHandler(int messageRate, long byteRate)
+    {
+        this.messageRate = messageRate;
+        this.byteRate = byteRate;
+        this.messageTokens = messageRate;
+        this.byteTokens = byteRate;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext context, Object message) throws Exception
+    {
+        if (message instanceof WebSocketFrame) {
+            long now = System.nanoTime();
+            double elapsedSeconds = (now - this.lastRefill) / NANOS_PER_SECOND;
+            this.lastRefill = now;
+
+            long delay = 0;
+            if (this.messageRate > 0) {
+                this.messageTokens = Math.min(this.messageRate, this.messageTokens + elapsedSeconds * this.messageRate);
+                this.messageTokens--;
+                delay = getDelay(this.messageTokens, this.messageRate);
+            }
+            if (this.byteRate > 0) {
+                this.byteTokens = Math.min(this.byteRate, this.byteTokens + elapsedSeconds * this.byteRate);
+                this.byteTokens -= ((WebSocketFrame) message).content().readableBytes();
+                delay = Math.max(delay, getDelay(this.byteTokens, this.byteRate));
+            }
+
+            if (delay > 0 && !this.throttled) {
+                // The frame has already been read so we let it through but we stop reading until the bucket is
+                // refilled.
+                this.throttled = true;
+                context.channel().config().setAutoRead(false);
+                context.pipeline().fireUserEventTriggered(ThrottleStateEvent.THROTTLED);
+                context.executor().schedule(() -> {
+                    this.throttled = false;
+                    context.pipeline().fireUserEventTriggered(ThrottleStateEvent.RESUMED);
+                    context.channel().config().setAutoRead(true);
+                }, delay, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        context.fireChannelRead(message);
+    }
+
+    private long getDelay(double tokens, double rate)
+    {
+        return tokens < 0 ? (long) (-tokens / rate * NANOS_PER_SECOND) : 0;
+    }
+}
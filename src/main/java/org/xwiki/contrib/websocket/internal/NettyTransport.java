@@ -0,0 +1,185 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+/**
+ * The Netty transports that can be used by the WebSocket server.
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+public enum NettyTransport
+{
+    /**
+     * The portable transport based on the Java NIO selector.
+     */
+    NIO
+    {
+        @Override
+        public boolean isAvailable()
+        {
+            return true;
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory)
+        {
+            return new NioEventLoopGroup(threads, threadFactory);
+        }
+
+        @Override
+        public Class<? extends ServerChannel> getServerChannelClass()
+        {
+            return NioServerSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends SocketChannel> getSocketChannelClass()
+        {
+            return NioSocketChannel.class;
+        }
+
+        @Override
+        public boolean enableReusePort(ServerBootstrap serverBootstrap)
+        {
+            return false;
+        }
+    },
+
+    /**
+     * The Linux native transport based on epoll, which has less system call overhead and produces less garbage.
+     */
+    EPOLL
+    {
+        @Override
+        public boolean isAvailable()
+        {
+            return Epoll.isAvailable();
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory)
+        {
+            return new EpollEventLoopGroup(threads, threadFactory);
+        }
+
+        @Override
+        public Class<? extends ServerChannel> getServerChannelClass()
+        {
+            return EpollServerSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends SocketChannel> getSocketChannelClass()
+        {
+            return EpollSocketChannel.class;
+        }
+
+        @Override
+        public boolean enableReusePort(ServerBootstrap serverBootstrap)
+        {
+            serverBootstrap.option(EpollChannelOption.SO_REUSEPORT, Boolean.TRUE);
+            return true;
+        }
+    };
+
+    /**
+     * The value used to let the WebSocket service pick the best available transport.
+     */
+    public static final String AUTO = "auto";
+
+    /**
+     * @return {@code true} if this transport can be used on the current platform, {@code false} otherwise
+     */
+    public abstract boolean isAvailable();
+
+    /**
+     * @param threads the number of threads, {@code 0} to use the Netty default
+     * @param threadFactory the factory used to create the event loop threads
+     * @return a new event loop group for this transport
+     */
+    public abstract EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory);
+
+    /**
+     * @return the server channel implementation for this transport
+     */
+    public abstract Class<? extends ServerChannel> getServerChannelClass();
+
+    /**
+     * @return the client channel implementation for this transport
+     */
+    public abstract Class<? extends SocketChannel> getSocketChannelClass();
+
+    /**
+     * Enables the {@code SO_REUSEPORT} socket option, allowing multiple server channels to bind the same port.
+     * 
+     * @param serverBootstrap the server bootstrap to configure
+     * @return {@code true} if the option was set, {@code false} if this transport doesn't support it
+     */
+    public abstract boolean enableReusePort(ServerBootstrap serverBootstrap);
+
+    /**
+     * Selects the transport to use based on the configured value.
+     * 
+     * @param name the configured transport name ({@code auto}, {@code nio} or {@code epoll})
+     * @param logger the logger used to report why the configured transport can't be used
+     * @return the transport to use
+     */
+    public static NettyTransport select(String name, Logger logger)
+    {
+        if (name == null || AUTO.equalsIgnoreCase(name)) {
+            return EPOLL.isAvailable() ? EPOLL : NIO;
+        }
+
+        NettyTransport transport;
+        try {
+            transport = valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            logger.warn("Unknown WebSocket transport [{}]. Falling back to [{}].", name, AUTO);
+            return select(AUTO, logger);
+        }
+
+        if (!transport.isAvailable()) {
+            logger.warn("The [{}] WebSocket transport is not available on this platform. Falling back to [{}].",
+                name, NIO);
+            return NIO;
+        }
+
+        return transport;
+    }
+}
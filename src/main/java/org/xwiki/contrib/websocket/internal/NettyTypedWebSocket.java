@@ -0,0 +1,94 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+import org.xwiki.contrib.websocket.TypedWebSocket;
+import org.xwiki.contrib.websocket.WebSocket;
+import org.xwiki.contrib.websocket.WebSocketCodec;
+import org.xwiki.contrib.websocket.WebSocketMessage;
+
+/**
+ * {@link TypedWebSocket} implementation that decodes the received messages directly from the network buffers and
+ * sends the encoded messages without copying them.
+ * 
+ * @param <T> the type of messages
+ * @version $Id$
+ * @since 1.10
+ */
+public class NettyTypedWebSocket<T> implements TypedWebSocket<T>
+{
+    private final NettyWebSocket webSocket;
+
+    private final WebSocketCodec<T> codec;
+
+    NettyTypedWebSocket(NettyWebSocket webSocket, WebSocketCodec<T> codec)
+    {
+        this.webSocket = webSocket;
+        this.codec = codec;
+    }
+
+    @Override
+    public void send(T message)
+    {
+        this.webSocket.send(encode(message), this.codec.isText());
+    }
+
+    @Override
+    public WebSocketMessage prepare(T message)
+    {
+        return new WebSocketMessage(encode(message), this.codec.isText());
+    }
+
+    @Override
+    public void onMessage(Consumer<T> messageHandler)
+    {
+        this.webSocket.onRawMessage(messageHandler, (message, text) -> {
+            if (text != this.codec.isText()) {
+                // The codec can't decode this type of message.
+                return;
+            }
+            try {
+                messageHandler.accept(this.codec.decode(message.nioBuffer()));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to decode the WebSocket message.", e);
+            }
+        });
+    }
+
+    @Override
+    public WebSocket getWebSocket()
+    {
+        return this.webSocket;
+    }
+
+    private ByteBuffer encode(T message)
+    {
+        try {
+            return this.codec.encode(message);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to encode the WebSocket message.", e);
+        }
+    }
+}
@@ -19,17 +19,33 @@
  */
 package org.xwiki.contrib.websocket.internal;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xwiki.contrib.websocket.TypedWebSocket;
 import org.xwiki.contrib.websocket.WebSocket;
+import org.xwiki.contrib.websocket.WebSocketCodec;
+import org.xwiki.contrib.websocket.WebSocketConfig;
+import org.xwiki.contrib.websocket.WebSocketMessage;
 
-import io.netty.channel.ChannelHandlerContext;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
 
 /**
  * {@link WebSocket} implementation based on Netty.
@@ -38,23 +54,289 @@ import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
  */
 public class NettyWebSocket implements WebSocket
 {
+    /**
+     * Keep buffering the messages sent to a client that is too far behind.
+     */
+    public static final String BACKPRESSURE_NONE = "none";
+
+    /**
+     * Drop the messages sent to a client that is too far behind.
+     */
+    public static final String BACKPRESSURE_DROP = "drop";
+
+    /**
+     * Block the caller until the client catches up, closing the connection if it doesn't. The network I/O thread can't
+     * be blocked (it is the one writing the pending data) so when the caller is the network I/O thread (e.g. with the
+     * {@code inline} handler execution mode) the connection is closed right away, as with {@link #BACKPRESSURE_CLOSE}.
+     * The messages broadcast to a room never block either, since a slow member would delay all the members after it:
+     * the connection of the slow member is closed instead.
+     */
+    public static final String BACKPRESSURE_BLOCK = "block";
+
+    /**
+     * Close the connection of a client that is too far behind.
+     */
+    public static final String BACKPRESSURE_CLOSE = "close";
+
     private static final Logger LOGGER = LoggerFactory.getLogger(NettyWebSocket.class);
 
-    private final ChannelHandlerContext context;
+    /**
+     * Whether we warned that the {@code block} backpressure policy can't block the network I/O thread.
+     */
+    private static final AtomicBoolean BLOCK_ON_EVENT_LOOP_WARNED = new AtomicBoolean();
+
+    /**
+     * The maximum number of fragments kept separately before the composite buffer consolidates them.
+     */
+    private static final int MAX_FRAGMENTS = 1024;
+
+    /**
+     * A raw message handler registered on behalf of a callback (e.g. the message handler of a {@link TypedWebSocket}),
+     * so that it can be removed by passing the callback to {@link NettyWebSocket#removeCallback(Object)}.
+     */
+    private static final class RawMessageHandler
+    {
+        private final Object callback;
+
+        private final BiConsumer<ByteBuf, Boolean> messageHandler;
+
+        RawMessageHandler(Object callback, BiConsumer<ByteBuf, Boolean> messageHandler)
+        {
+            this.callback = callback;
+            this.messageHandler = messageHandler;
+        }
+    }
+
+    private final Channel channel;
+
+    private final ListenerRegistry<Consumer<String>> messageHandlers = newListenerRegistry(Consumer.class);
+
+    private final ListenerRegistry<Consumer<ByteBuffer>> binaryMessageHandlers = newListenerRegistry(Consumer.class);
+
+    private final ListenerRegistry<BiConsumer<ByteBuffer, Boolean>> messageStreamHandlers =
+        newListenerRegistry(BiConsumer.class);
+
+    private final ListenerRegistry<RawMessageHandler> rawMessageHandlers =
+        new ListenerRegistry<>(new RawMessageHandler[0]);
+
+    private final ListenerRegistry<Runnable> disconnectHandlers = new ListenerRegistry<>(new Runnable[0]);
+
+    private final ListenerRegistry<Consumer<Boolean>> writabilityHandlers = newListenerRegistry(Consumer.class);
+
+    private final String backpressurePolicy;
+
+    private final long maxPendingBytes;
+
+    private final long blockTimeout;
 
-    private final List<Consumer<String>> messageHandlers = new ArrayList<>();
+    private final Object writabilityLock = new Object();
 
-    private final List<Runnable> disconnectHandlers = new ArrayList<>();
+    private final WebSocketHandlerMetrics metrics;
 
-    NettyWebSocket(ChannelHandlerContext context)
+    /**
+     * Whether a fragmented message is being received.
+     */
+    private boolean fragmenting;
+
+    /**
+     * The fragments of the message being received, kept as raw bytes until the last fragment is received.
+     */
+    private CompositeByteBuf fragments;
+
+    NettyWebSocket(Channel channel, WebSocketConfig config, WebSocketHandlerMetrics metrics)
     {
-        this.context = context;
+        this.channel = channel;
+        this.metrics = metrics;
+        this.backpressurePolicy = config.getBackpressurePolicy();
+        this.maxPendingBytes = config.getMaxPendingBytes();
+        this.blockTimeout = config.getBackpressureBlockTimeout();
     }
 
     @Override
     public void send(String message)
     {
-        this.context.channel().writeAndFlush(new TextWebSocketFrame(message));
+        write(new TextWebSocketFrame(message));
+    }
+
+    @Override
+    public CompletableFuture<Void> sendAsync(String message)
+    {
+        return toCompletableFuture(write(new TextWebSocketFrame(message)));
+    }
+
+    @Override
+    public void sendBinary(ByteBuffer message)
+    {
+        write(new BinaryWebSocketFrame(Unpooled.wrappedBuffer(message)));
+    }
+
+    @Override
+    public CompletableFuture<Void> sendBinaryAsync(ByteBuffer message)
+    {
+        return toCompletableFuture(write(new BinaryWebSocketFrame(Unpooled.wrappedBuffer(message))));
+    }
+
+    @Override
+    public void send(WebSocketMessage message)
+    {
+        send(message.getContent(), message.isText());
+    }
+
+    /**
+     * Sends an encoded message, without copying it.
+     * 
+     * @param content the raw bytes of the message (UTF-8 encoded for text messages)
+     * @param text whether it's a text or a binary message
+     */
+    void send(ByteBuffer content, boolean text)
+    {
+        ByteBuf wrappedContent = Unpooled.wrappedBuffer(content);
+        write(text ? new TextWebSocketFrame(wrappedContent) : new BinaryWebSocketFrame(wrappedContent));
+    }
+
+    @Override
+    public <T> TypedWebSocket<T> as(WebSocketCodec<T> codec)
+    {
+        return new NettyTypedWebSocket<>(this, codec);
+    }
+
+    @Override
+    public boolean isWritable()
+    {
+        return this.channel.isWritable();
+    }
+
+    @Override
+    public void onWritabilityChanged(Consumer<Boolean> callback)
+    {
+        this.writabilityHandlers.add(callback);
+    }
+
+    /**
+     * Sends a message whose content is shared with other WebSockets (e.g. a message broadcast to a room). The content
+     * is not copied: each sent frame holds a retained duplicate of it.
+     * 
+     * @param content the encoded message content
+     * @param text whether it's a text or a binary message
+     */
+    void send(ByteBuf content, boolean text)
+    {
+        ByteBuf sharedContent = content.retainedDuplicate();
+        write(text ? new TextWebSocketFrame(sharedContent) : new BinaryWebSocketFrame(sharedContent), false);
+    }
+
+    /**
+     * @return {@code true} if the underlying connection is still open, {@code false} otherwise
+     */
+    boolean isOpen()
+    {
+        return this.channel.isOpen();
+    }
+
+    private ChannelFuture write(WebSocketFrame frame)
+    {
+        return write(frame, true);
+    }
+
+    /**
+     * @param canBlock whether the caller can be blocked until the client catches up, which is not the case when the
+     *            message is shared with other WebSockets that would have to wait too
+     */
+    private ChannelFuture write(WebSocketFrame frame, boolean canBlock)
+    {
+        if (getPendingBytes(this.channel) > this.maxPendingBytes && !applyBackpressure(this.channel, canBlock)) {
+            frame.release();
+            return this.channel.newFailedFuture(new IllegalStateException(
+                String.format("The client is too far behind, more than [%s] bytes are waiting to be sent.",
+                    this.maxPendingBytes)));
+        }
+
+        this.metrics.sent(frame.content().readableBytes());
+        return this.channel.writeAndFlush(frame);
+    }
+
+    /**
+     * @return the number of bytes waiting to be sent to the client
+     */
+    long getPendingBytes()
+    {
+        return getPendingBytes(this.channel);
+    }
+
+    private long getPendingBytes(Channel channel)
+    {
+        ChannelOutboundBuffer outboundBuffer = channel.unsafe().outboundBuffer();
+        return outboundBuffer != null ? outboundBuffer.totalPendingWriteBytes() : 0;
+    }
+
+    /**
+     * @return {@code true} if the message should be sent anyway, {@code false} if it should be dropped
+     */
+    private boolean applyBackpressure(Channel channel, boolean canBlock)
+    {
+        if (BACKPRESSURE_DROP.equals(this.backpressurePolicy)) {
+            LOGGER.debug("Dropping WebSocket message because the client is too far behind.");
+            return false;
+        } else if (BACKPRESSURE_CLOSE.equals(this.backpressurePolicy)) {
+            LOGGER.debug("Closing WebSocket connection because the client is too far behind.");
+            channel.close();
+            return false;
+        } else if (BACKPRESSURE_BLOCK.equals(this.backpressurePolicy)) {
+            if (!canBlock) {
+                LOGGER.debug("Closing WebSocket connection because the client is too far behind to receive a shared "
+                    + "message.");
+                channel.close();
+                return false;
+            } else if (channel.eventLoop().inEventLoop()) {
+                // We can't block the event loop, because it's the one that writes the pending data, and we can't keep
+                // buffering either since that's what the policy is meant to prevent.
+                if (BLOCK_ON_EVENT_LOOP_WARNED.compareAndSet(false, true)) {
+                    LOGGER.warn("The [block] WebSocket backpressure policy can't block the network I/O thread (e.g. "
+                        + "when the handler callbacks are executed inline) so the connections of the clients that "
+                        + "are too far behind are closed instead.");
+                }
+                channel.close();
+                return false;
+            } else if (!awaitWritable(channel)) {
+                LOGGER.debug("Closing WebSocket connection because the client didn't catch up in time.");
+                channel.close();
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean awaitWritable(Channel channel)
+    {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.blockTimeout);
+        synchronized (this.writabilityLock) {
+            long remaining = deadline - System.nanoTime();
+            while (!channel.isWritable() && channel.isActive() && remaining > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this.writabilityLock, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                remaining = deadline - System.nanoTime();
+            }
+        }
+
+        return channel.isWritable();
+    }
+
+    private CompletableFuture<Void> toCompletableFuture(ChannelFuture channelFuture)
+    {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        channelFuture.addListener(result -> {
+            if (result.isSuccess()) {
+                future.complete(null);
+            } else {
+                future.completeExceptionally(result.cause());
+            }
+        });
+        return future;
     }
 
     @Override
@@ -63,33 +345,215 @@ public class NettyWebSocket implements WebSocket
         this.messageHandlers.add(messageHandler);
     }
 
+    @Override
+    public void onBinaryMessage(Consumer<ByteBuffer> messageHandler)
+    {
+        this.binaryMessageHandlers.add(messageHandler);
+    }
+
+    @Override
+    public void onMessageStream(BiConsumer<ByteBuffer, Boolean> fragmentHandler)
+    {
+        this.messageStreamHandlers.add(fragmentHandler);
+    }
+
     @Override
     public void onDisconnect(Runnable callback)
     {
         this.disconnectHandlers.add(callback);
     }
 
+    /**
+     * Execute some code each time a message is received, passing the raw bytes of the entire message (UTF-8 encoded
+     * for text messages) and whether it's a text message. The network buffer is released after the handler returns.
+     * 
+     * @param callback the callback on behalf of which the message handler is registered, used to remove it
+     * @param messageHandler the code that handles the received messages
+     */
+    void onRawMessage(Object callback, BiConsumer<ByteBuf, Boolean> messageHandler)
+    {
+        this.rawMessageHandlers.add(new RawMessageHandler(callback, messageHandler));
+    }
+
+    @Override
+    public boolean removeCallback(Object callback)
+    {
+        return this.messageHandlers.remove(callback) || this.binaryMessageHandlers.remove(callback)
+            || this.messageStreamHandlers.remove(callback) || removeRawMessageHandler(callback)
+            || this.disconnectHandlers.remove(callback) || this.writabilityHandlers.remove(callback);
+    }
+
+    private boolean removeRawMessageHandler(Object callback)
+    {
+        for (RawMessageHandler listener : this.rawMessageHandlers.get()) {
+            if (listener.callback == callback && this.rawMessageHandlers.remove(listener)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called for each received message fragment, in the order they are received. Messages that are not fragmented
+     * are passed as a single (last) fragment.
+     * 
+     * @param fragment the message fragment
+     * @param text whether the fragment is part of a text message or a binary message
+     * @param last whether this is the last fragment of the message
+     */
+    void message(ByteBuf fragment, boolean text, boolean last)
+    {
+        streamMessage(fragment, last);
+
+        boolean first = !this.fragmenting;
+        this.fragmenting = !last;
+        if (first && last) {
+            // Single frame message: no need to reassemble it.
+            deliver(fragment, text);
+            return;
+        }
+
+        // Reassemble the raw bytes only if someone is interested in the full message.
+        if (first) {
+            this.fragments = (text ? this.messageHandlers : this.binaryMessageHandlers).isEmpty()
+                && this.rawMessageHandlers.isEmpty() ? null : fragment.alloc().compositeBuffer(MAX_FRAGMENTS);
+        }
+        if (this.fragments != null) {
+            this.fragments.addComponent(true, fragment.retain());
+            if (last) {
+                ByteBuf fullMessage = this.fragments;
+                this.fragments = null;
+                try {
+                    deliver(fullMessage, text);
+                } finally {
+                    fullMessage.release();
+                }
+            }
+        }
+    }
+
+    private void deliver(ByteBuf message, boolean text)
+    {
+        rawMessage(message, text);
+        if (!text) {
+            message(message);
+        } else if (!this.messageHandlers.isEmpty()) {
+            // Decode the message only once, after all its fragments have been received.
+            message(message.toString(StandardCharsets.UTF_8));
+        }
+    }
+
     void message(String message)
     {
-        for (Consumer<String> messageHandler : this.messageHandlers) {
+        for (Consumer<String> messageHandler : this.messageHandlers.get()) {
             try {
                 messageHandler.accept(message);
             } catch (Exception e) {
+                this.metrics.error();
                 LOGGER.warn("Exception in WebSocket.onMessage(). Root cause is [{}].",
                     ExceptionUtils.getRootCauseMessage(e));
             }
         }
     }
 
+    void message(ByteBuf message)
+    {
+        if (this.binaryMessageHandlers.isEmpty()) {
+            return;
+        }
+
+        // Avoid copying the message: each handler gets its own read-only view of the same network buffer.
+        ByteBuffer buffer = message.nioBuffer();
+        for (Consumer<ByteBuffer> messageHandler : this.binaryMessageHandlers.get()) {
+            try {
+                messageHandler.accept(buffer.asReadOnlyBuffer());
+            } catch (Exception e) {
+                this.metrics.error();
+                LOGGER.warn("Exception in WebSocket.onBinaryMessage(). Root cause is [{}].",
+                    ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+    }
+
+    private void rawMessage(ByteBuf message, boolean text)
+    {
+        for (RawMessageHandler listener : this.rawMessageHandlers.get()) {
+            BiConsumer<ByteBuf, Boolean> messageHandler = listener.messageHandler;
+            try {
+                // Each handler gets its own view of the buffer, so that it can't affect the other handlers.
+                messageHandler.accept(message.duplicate(), text);
+            } catch (Exception e) {
+                this.metrics.error();
+                LOGGER.warn("Exception in TypedWebSocket.onMessage(). Root cause is [{}].",
+                    ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+    }
+
+    private void streamMessage(ByteBuf fragment, boolean last)
+    {
+        if (this.messageStreamHandlers.isEmpty()) {
+            return;
+        }
+
+        ByteBuffer buffer = fragment.nioBuffer();
+        for (BiConsumer<ByteBuffer, Boolean> fragmentHandler : this.messageStreamHandlers.get()) {
+            try {
+                fragmentHandler.accept(buffer.asReadOnlyBuffer(), last);
+            } catch (Exception e) {
+                this.metrics.error();
+                LOGGER.warn("Exception in WebSocket.onMessageStream(). Root cause is [{}].",
+                    ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+    }
+
+    /**
+     * Wakes up the threads waiting for the client to catch up. Must be called from the network I/O thread whenever the
+     * channel writability changes or the channel is closed.
+     */
+    void signalWritability()
+    {
+        synchronized (this.writabilityLock) {
+            this.writabilityLock.notifyAll();
+        }
+    }
+
+    void writabilityChanged(boolean writable)
+    {
+        for (Consumer<Boolean> callback : this.writabilityHandlers.get()) {
+            try {
+                callback.accept(writable);
+            } catch (Exception e) {
+                this.metrics.error();
+                LOGGER.warn("Exception in WebSocket.onWritabilityChanged(). Root cause is [{}].",
+                    ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+    }
+
     void disconnect()
     {
-        for (Runnable callback : this.disconnectHandlers) {
+        if (this.fragments != null) {
+            this.fragments.release();
+            this.fragments = null;
+        }
+
+        for (Runnable callback : this.disconnectHandlers.get()) {
             try {
                 callback.run();
             } catch (Exception e) {
+                this.metrics.error();
                 LOGGER.warn("Exception in WebSocket.onDisconnect(). Root cause is [{}].",
                     ExceptionUtils.getRootCauseMessage(e));
             }
         }
     }
+
+    @SuppressWarnings("unchecked")
+    private static <T> ListenerRegistry<T> newListenerRegistry(Class<?> listenerType)
+    {
+        // The listener types are generic so we can't create the typed array directly.
+        return new ListenerRegistry<>((T[]) Array.newInstance(listenerType, 0));
+    }
 }
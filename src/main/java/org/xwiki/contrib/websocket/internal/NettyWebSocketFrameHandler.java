@@ -0,0 +1,234 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+/**
+ * Dispatches the frames received on an upgraded WebSocket connection. It replaces the {@link
+ * NettyWebSocketRequestHandler} once the handshake is done, so that the frames don't go through the HTTP request
+ * handling. The control frames are handled the same way as Netty's {@code WebSocketServerProtocolHandler}: pings are
+ * answered, pongs are dropped and close frames complete the closing handshake.
+ * <p>
+ * This handler holds the state of the connection for its whole life, so it keeps only what's needed to dispatch the
+ * frames (not the handshake request nor the handshaker).
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+public class NettyWebSocketFrameHandler extends SimpleChannelInboundHandler<WebSocketFrame>
+{
+    /**
+     * The number of bytes the state of a connection is expected to retain for a typical browser handshake, once the
+     * handler is connected. This covers everything this handler references for the whole life of the connection: the
+     * WebSocket and its listeners, the callback executor and the XWiki context snapshot in which the callbacks are
+     * executed (the cloned XWiki context, the request snapshot and the response stub). It doesn't cover the Netty
+     * channel nor what is shared between the connections (configuration, metrics, thread pools, WebSocket handler).
+     */
+    static final int CONNECTION_MEMORY_BUDGET = 16384;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NettyWebSocketFrameHandler.class);
+
+    /**
+     * The WebSocket close status code used when the server is overloaded.
+     */
+    private static final int TRY_AGAIN_LATER = 1013;
+
+    private final NettyWebSocket webSocket;
+
+    /**
+     * Executes the handler callbacks for this connection, in the order they are submitted.
+     */
+    private final OrderedExecutor executor;
+
+    private final WebSocketHandlerMetrics metrics;
+
+    private final int maxMessageSize;
+
+    /**
+     * Whether a fragmented message is being received.
+     */
+    private boolean fragmenting;
+
+    private boolean fragmentedText;
+
+    private long fragmentedSize;
+
+    /**
+     * Creates a new handler.
+     * 
+     * @param webSocket the WebSocket that receives the messages
+     * @param executor executes the handler callbacks for this connection
+     * @param metrics the metrics of the WebSocket handler
+     * @param maxMessageSize the maximum size of a message
+     */
+    public NettyWebSocketFrameHandler(NettyWebSocket webSocket, OrderedExecutor executor,
+        WebSocketHandlerMetrics metrics, int maxMessageSize)
+    {
+        this.webSocket = webSocket;
+        this.executor = executor;
+        this.metrics = metrics;
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext context, WebSocketFrame frame)
+    {
+        // No need to synchronize: the frames of a connection are always handled by the same network I/O thread.
+        // Check the data frames first since they are by far the most frequent. Control frames can be received between
+        // the fragments of a message.
+        if (frame instanceof TextWebSocketFrame || frame instanceof BinaryWebSocketFrame
+            || frame instanceof ContinuationWebSocketFrame) {
+            if (!frame.isFinalFragment() || this.fragmenting) {
+                handleWebSocketMultipleFrames(context, frame);
+            } else {
+                // Single frame message.
+                checkMessageSize(frame.content().readableBytes());
+                dispatch(context, frame.content(), frame instanceof TextWebSocketFrame, true);
+            }
+        } else if (frame instanceof PingWebSocketFrame) {
+            // Flushed when the read completes.
+            context.write(new PongWebSocketFrame(frame.content().retain()));
+        } else if (frame instanceof CloseWebSocketFrame) {
+            close(context, (CloseWebSocketFrame) frame.retain());
+        } else if (!(frame instanceof PongWebSocketFrame)) {
+            // Pongs answer the pings sent by the server to check that the connection is still alive, nothing to do.
+            throw new UnsupportedOperationException(
+                String.format("%s frame types not supported", frame.getClass().getName()));
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext context)
+    {
+        context.flush();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext context)
+    {
+        boolean writable = context.channel().isWritable();
+        this.webSocket.signalWritability();
+        execute(context, () -> this.webSocket.writabilityChanged(writable));
+        context.fireChannelWritabilityChanged();
+    }
+
+    /**
+     * Called when the connection is closed.
+     */
+    void disconnected()
+    {
+        this.metrics.disconnected(this.webSocket);
+        this.webSocket.signalWritability();
+        // The disconnect callbacks usually release resources so we can't skip them, even when the connection has too
+        // many pending callbacks. They still have to run after the pending callbacks, in the XWiki context.
+        this.executor.executeUnbounded(this.webSocket::disconnect);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext context, Throwable cause)
+    {
+        LOGGER.warn("Netty exceptionCaught() [{}]", ExceptionUtils.getStackTrace(cause));
+        context.close();
+    }
+
+    private void close(ChannelHandlerContext context, CloseWebSocketFrame frame)
+    {
+        // Same as WebSocketServerHandshaker#close(), which is all we needed the handshaker for.
+        context.channel().writeAndFlush(frame).addListener(ChannelFutureListener.CLOSE);
+    }
+
+    private void handleWebSocketMultipleFrames(ChannelHandlerContext context, WebSocketFrame frame)
+    {
+        if (!this.fragmenting) {
+            if (!(frame instanceof TextWebSocketFrame || frame instanceof BinaryWebSocketFrame)) {
+                throw new UnsupportedOperationException(
+                    "unsupported frame fragment type " + frame.getClass().getName());
+            }
+            this.fragmenting = true;
+            this.fragmentedText = frame instanceof TextWebSocketFrame;
+            this.fragmentedSize = 0;
+        } else if (!(frame instanceof ContinuationWebSocketFrame)) {
+            throw new UnsupportedOperationException("unsupported frame fragment type " + frame.getClass().getName());
+        }
+
+        // The fragments are reassembled (without being decoded) by the WebSocket, we only enforce the size limit here.
+        this.fragmentedSize += frame.content().readableBytes();
+        checkMessageSize(this.fragmentedSize);
+        if (frame.isFinalFragment()) {
+            this.fragmenting = false;
+        }
+        dispatch(context, frame.content(), this.fragmentedText, frame.isFinalFragment());
+    }
+
+    private void checkMessageSize(long size)
+    {
+        if (size > this.maxMessageSize) {
+            throw new RuntimeException("Frame size too big [" + size + "] max frame size [" + this.maxMessageSize
+                + "]");
+        }
+    }
+
+    private void dispatch(ChannelHandlerContext context, ByteBuf fragment, boolean text, boolean last)
+    {
+        // The frame is released when we return so we need to retain its content until the handlers are called.
+        this.metrics.received(fragment.readableBytes(), last);
+        ByteBuf retainedFragment = fragment.retain();
+        boolean accepted = execute(context, () -> {
+            try {
+                this.webSocket.message(retainedFragment, text, last);
+            } finally {
+                retainedFragment.release();
+            }
+        });
+        if (!accepted) {
+            retainedFragment.release();
+        }
+    }
+
+    private boolean execute(ChannelHandlerContext context, Runnable task)
+    {
+        try {
+            this.executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Closing overloaded WebSocket connection. Root cause is [{}].",
+                ExceptionUtils.getRootCauseMessage(e));
+            close(context, new CloseWebSocketFrame(TRY_AGAIN_LATER, "Server overloaded"));
+            return false;
+        }
+    }
+}
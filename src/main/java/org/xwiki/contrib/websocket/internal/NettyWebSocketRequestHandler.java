@@ -21,9 +21,9 @@ package org.xwiki.contrib.websocket.internal;
 
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.inject.Inject;
-import javax.inject.Named;
 import javax.inject.Provider;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
@@ -31,9 +31,13 @@ import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.annotation.InstantiationStrategy;
 import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
-import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.contrib.websocket.WebSocketConfig;
 import org.xwiki.contrib.websocket.WebSocketHandler;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
+import org.xwiki.wiki.manager.WikiManagerException;
+
+import com.xpn.xwiki.XWikiContext;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
@@ -49,30 +53,48 @@ import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpUtil;
 import io.netty.handler.codec.http.HttpVersion;
-import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
-import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
-import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
-import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
-import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
-import io.netty.handler.codec.http.websocketx.WebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketServerHandshaker;
 import io.netty.handler.codec.http.websocketx.WebSocketServerHandshakerFactory;
 
 /**
- * Dispatches the WebSocket requests to the right {@link WebSocketHandler}.
+ * Dispatches the WebSocket requests to the right {@link WebSocketHandler}. This handler only takes care of the
+ * handshake: once the connection is upgraded it is replaced by a {@link NettyWebSocketFrameHandler} and the HTTP
+ * codec and aggregator are removed from the pipeline.
  * 
  * @version $Id$
  */
 @Component(roles = NettyWebSocketRequestHandler.class)
 @InstantiationStrategy(ComponentInstantiationStrategy.PER_LOOKUP)
-public final class NettyWebSocketRequestHandler extends SimpleChannelInboundHandler<Object>
+public final class NettyWebSocketRequestHandler extends SimpleChannelInboundHandler<FullHttpRequest>
 {
+    /**
+     * The maximum length of the content of the handshake request. A WebSocket handshake is a GET request without
+     * content so there's no need to buffer anything else than the request headers.
+     */
+    static final int MAX_HANDSHAKE_CONTENT_LENGTH = 0;
+
+    /**
+     * The name of the frame handler, in the pipeline.
+     */
+    private static final String FRAME_HANDLER_NAME = "wsframehandler";
+
     @Inject
     private Logger logger;
 
     @Inject
-    @Named("context")
-    private Provider<ComponentManager> componentManagerProvider;
+    private WebSocketHandlerCache handlerCache;
+
+    @Inject
+    private WebSocketConnectionLimiter connectionLimiter;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private WebSocketMetrics metrics;
+
+    @Inject
+    private WikiDescriptorManager wikiDescriptorManager;
 
     @Inject
     private WebSocketContextInitializer xcontextInitializer;
@@ -80,29 +102,23 @@ public final class NettyWebSocketRequestHandler extends SimpleChannelInboundHand
     @Inject
     private WebSocketConfig config;
 
-    private WebSocketServerHandshaker handShaker;
+    @Inject
+    private WebSocketHandlerExecutor handlerExecutor;
 
-    private NettyWebSocket webSocket;
+    private WebSocketHandlerMetrics handlerMetrics;
 
-    private StringBuilder frames;
+    /**
+     * When the handshake request has been received, used to measure the handshake duration.
+     */
+    private long handshakeStart;
 
-    @Override
-    public void channelRead0(ChannelHandlerContext context, Object message)
-    {
-        if (message instanceof FullHttpRequest) {
-            handleHttpRequest(context, (FullHttpRequest) message);
-        } else if (message instanceof WebSocketFrame) {
-            handleWebSocketFrame(context, (WebSocketFrame) message);
-        }
-    }
+    /**
+     * Executes the handler callbacks for this connection, in the order they are submitted.
+     */
+    private OrderedExecutor executor;
 
     @Override
-    public void channelReadComplete(ChannelHandlerContext context)
-    {
-        context.flush();
-    }
-
-    private void handleHttpRequest(ChannelHandlerContext context, FullHttpRequest request)
+    public void channelRead0(ChannelHandlerContext context, FullHttpRequest request)
     {
         // Handle a bad request.
         if (!request.decoderResult().isSuccess()) {
@@ -115,22 +131,109 @@ public final class NettyWebSocketRequestHandler extends SimpleChannelInboundHand
             return;
         }
 
-        NettyXWikiWebSocketRequest xwikiRequest = null;
+        NettyXWikiWebSocketRequest xwikiRequest;
         try {
             xwikiRequest = new NettyXWikiWebSocketRequest(request, context.channel());
         } catch (URISyntaxException e) {
             this.logger.debug("Invalid WebSocket URI. Root cause is [{}].", ExceptionUtils.getRootCauseMessage(e));
             sendHttpResponse(context, request,
                 new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST));
+            return;
+        }
+
+        // The XWiki context initialization, the handler lookup and the handler itself can block (e.g. to access the
+        // database) so we don't run them on the network I/O thread. We stop reading from the connection until the
+        // pipeline is ready for the WebSocket frames.
+        this.handshakeStart = System.nanoTime();
+        this.executor = this.handlerExecutor.newConnectionExecutor();
+        context.channel().config().setAutoRead(false);
+        request.retain();
+        try {
+            this.handlerExecutor.executeHandshake(() -> {
+                try {
+                    connect(context, request, xwikiRequest);
+                } finally {
+                    request.release();
+                    context.channel().config().setAutoRead(true);
+                }
+            }, this.executor);
+        } catch (RejectedExecutionException e) {
+            this.logger.debug("WebSocket connection rejected. Root cause is [{}].",
+                ExceptionUtils.getRootCauseMessage(e));
+            FullHttpResponse response =
+                new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.SERVICE_UNAVAILABLE);
+            response.headers().set(HttpHeaderNames.RETRY_AFTER, this.config.getHandshakeRetryAfter());
+            sendHttpResponse(context, request, response);
+            request.release();
+        }
+    }
+
+    private void connect(ChannelHandlerContext context, FullHttpRequest request,
+        NettyXWikiWebSocketRequest xwikiRequest)
+    {
+        try {
+            connectInContext(context, request, xwikiRequest);
+        } finally {
+            this.xcontextInitializer.cleanup();
+        }
+    }
+
+    private void connectInContext(ChannelHandlerContext context, FullHttpRequest request,
+        NettyXWikiWebSocketRequest xwikiRequest)
+    {
+        try {
+            this.xcontextInitializer.initialize(xwikiRequest);
+        } catch (Exception e) {
+            this.logger.warn("Failed to initialize the XWiki context for WebSocket [{}]. Root cause is [{}].",
+                xwikiRequest.getWebSocketURI(), ExceptionUtils.getRootCauseMessage(e));
+            sendHttpResponse(context, request,
+                new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.INTERNAL_SERVER_ERROR));
+            return;
+        }
+
+        // Reject the unknown wikis before creating anything for them (e.g. the handler metrics), as the wiki comes from
+        // the request URL.
+        XWikiContext xcontext = this.xcontextProvider.get();
+        String wiki = xcontext.getWikiId();
+        if (!wikiExists(wiki)) {
+            ByteBuf content = Unpooled.copiedBuffer("ERROR: no wiki [" + wiki + "]", StandardCharsets.UTF_8);
+            sendHttpResponse(context, request,
+                new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND, content));
+            return;
+        }
+
+        // Check the limit of connections per user before calling the handler.
+        DocumentReference userReference = xcontext.getUserReference();
+        if (userReference != null) {
+            if (!this.connectionLimiter.acquireUserConnection(userReference)) {
+                FullHttpResponse response =
+                    new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.TOO_MANY_REQUESTS);
+                response.headers().set(HttpHeaderNames.RETRY_AFTER, this.config.getHandshakeRetryAfter());
+                sendHttpResponse(context, request, response);
+                return;
+            }
+            // The listeners registered on the channel live as long as the connection so they shouldn't reference this
+            // request handler (and thus the handshake request), only what they need.
+            WebSocketConnectionLimiter limiter = this.connectionLimiter;
+            context.channel().closeFuture().addListener(future -> limiter.releaseUserConnection(userReference));
         }
 
-        this.xcontextInitializer.initialize(xwikiRequest);
+        if (this.config.isHandlerContextManaged()) {
+            // Execute the handler callbacks in the XWiki context of the handshake.
+            WebSocketContextInitializer.Snapshot snapshot = this.xcontextInitializer.snapshot();
+            WebSocketContextInitializer initializer = this.xcontextInitializer;
+            this.executor.decorate(task -> () -> initializer.run(snapshot, task));
+        }
 
         WebSocketHandler handler = null;
         String handlerName = xwikiRequest.getWebSocketURI().getHandler();
         try {
-            handler = this.componentManagerProvider.get().getInstance(WebSocketHandler.class, handlerName);
+            handler = this.handlerCache.getHandler(handlerName);
         } catch (Exception e) {
+            this.logger.warn("Failed to lookup the WebSocket handler [{}]. Root cause is [{}].", handlerName,
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+        if (handler == null) {
             ByteBuf content = Unpooled.copiedBuffer("ERROR: no registered component for path [" + handlerName + "]",
                 StandardCharsets.UTF_8);
             sendHttpResponse(context, request,
@@ -138,75 +241,94 @@ public final class NettyWebSocketRequestHandler extends SimpleChannelInboundHand
             return;
         }
 
+        this.handlerMetrics = this.metrics.getHandlerMetrics(wiki, handlerName);
+        WebSocketHandlerMetrics callbackMetrics = this.handlerMetrics;
+        this.executor.decorate(task -> () -> {
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                callbackMetrics.callback(System.nanoTime() - start);
+            }
+        });
+
         handleWebSocketHandshake(context, request, handler);
     }
 
+    private boolean wikiExists(String wiki)
+    {
+        try {
+            return this.wikiDescriptorManager.exists(wiki);
+        } catch (WikiManagerException e) {
+            this.logger.warn("Failed to check if the wiki [{}] exists. Root cause is [{}].", wiki,
+                ExceptionUtils.getRootCauseMessage(e));
+            return false;
+        }
+    }
+
     private void handleWebSocketHandshake(ChannelHandlerContext context, FullHttpRequest request,
         WebSocketHandler handler)
     {
         String location = getWebSocketLocation(request, this.config.sslEnabled());
         WebSocketServerHandshakerFactory wsFactory =
-            new WebSocketServerHandshakerFactory(location, null, false, this.config.maxFrameSize());
-        this.handShaker = wsFactory.newHandshaker(request);
-        if (this.handShaker == null) {
+            new WebSocketServerHandshakerFactory(location, null, this.config.isCompressionEnabled(),
+                this.config.maxFrameSize());
+        WebSocketServerHandshaker handShaker = wsFactory.newHandshaker(request);
+        if (handShaker == null) {
             WebSocketServerHandshakerFactory.sendUnsupportedVersionResponse(context.channel());
-        } else {
-            this.handShaker.handshake(context.channel(), request);
+            return;
         }
 
-        this.webSocket = new NettyWebSocket(context);
+        // The handshaker removes the HTTP aggregator right away and the HTTP codec once the response is written, and
+        // we replace ourselves by a handler dedicated to the WebSocket frames. The connection doesn't read anything
+        // until the handshake is done so no frame can reach the pipeline before it is reconfigured, and the received
+        // messages are dispatched after the handler is connected since they go through the same executor. The frame
+        // handler holds the whole state of the connection: this request handler and the handshake request can be
+        // garbage collected once the handshake is done.
+        handShaker.handshake(context.channel(), request);
+        NettyWebSocket webSocket = new NettyWebSocket(context.channel(), this.config, this.handlerMetrics);
+        NettyWebSocketFrameHandler frameHandler = new NettyWebSocketFrameHandler(webSocket, this.executor,
+            this.handlerMetrics, this.config.maxFrameSize());
+        context.pipeline().replace(this, FRAME_HANDLER_NAME, frameHandler);
+        this.handlerMetrics.connected(webSocket, System.nanoTime() - this.handshakeStart);
 
+        // The handler is connected through the connection executor, like the other callbacks, so that it can't run at
+        // the same time as them (e.g. a writability change caused by the messages it sends).
         try {
-            handler.onConnect(this.webSocket);
-        } catch (Exception e) {
-            this.logger.warn("Exception in {}.onConnect(): [{}]", handler.getClass().getName(),
-                ExceptionUtils.getStackTrace(e));
+            this.executor.execute(newConnectCallback(handler, webSocket));
+        } catch (RejectedExecutionException e) {
+            this.logger.debug("Closing overloaded WebSocket connection. Root cause is [{}].",
+                ExceptionUtils.getRootCauseMessage(e));
+            context.channel().close();
         }
-
-        context.channel().closeFuture().addListener(channelFuture -> this.webSocket.disconnect());
+        context.channel().closeFuture().addListener(channelFuture -> frameHandler.disconnected());
     }
 
-    private synchronized void handleWebSocketFrame(ChannelHandlerContext context, WebSocketFrame frame)
+    private Runnable newConnectCallback(WebSocketHandler handler, NettyWebSocket webSocket)
     {
-        // Check for closing frame.
-        if (frame instanceof CloseWebSocketFrame) {
-            handShaker.close(context.channel(), (CloseWebSocketFrame) frame.retain());
-        } else if (frame instanceof PingWebSocketFrame) {
-            context.channel().write(new PongWebSocketFrame(frame.content().retain()));
-        } else if (!frame.isFinalFragment() || this.frames != null) {
-            handleWebSocketMultipleFrames(context, frame);
-        } else if (!(frame instanceof TextWebSocketFrame)) {
-            throw new UnsupportedOperationException(
-                String.format("%s frame types not supported", frame.getClass().getName()));
-        } else {
-            // Single text frame.
-            final String msg = ((TextWebSocketFrame) frame).text();
-            this.webSocket.message(msg);
-        }
-    }
+        // The callback lives as long as the connection waits to be connected so it shouldn't reference this request
+        // handler.
+        Logger connectLogger = this.logger;
+        WebSocketHandlerMetrics connectMetrics = this.handlerMetrics;
+        Runnable connectCallback = () -> {
+            try {
+                handler.onConnect(webSocket);
+            } catch (Exception e) {
+                connectMetrics.error();
+                connectLogger.warn("Exception in {}.onConnect(): [{}]", handler.getClass().getName(),
+                    ExceptionUtils.getStackTrace(e));
+            }
+        };
 
-    private void handleWebSocketMultipleFrames(ChannelHandlerContext context, WebSocketFrame frame)
-    {
-        final String msg;
-        if (frame instanceof TextWebSocketFrame) {
-            msg = ((TextWebSocketFrame) frame).text();
-        } else if (frame instanceof ContinuationWebSocketFrame) {
-            msg = ((ContinuationWebSocketFrame) frame).text();
+        if (this.config.isHandlerContextManaged()) {
+            // Already executed in the XWiki context of the handshake.
+            return connectCallback;
         } else {
-            throw new UnsupportedOperationException("unsupported frame fragment type " + frame.getClass().getName());
-        }
-        if (this.frames == null) {
-            this.frames = new StringBuilder();
-        }
-        this.frames.append(msg);
-        if (this.frames.length() > this.config.maxFrameSize()) {
-            throw new RuntimeException("Frame size too big [" + this.frames.length() + "] max frame size ["
-                + this.config.maxFrameSize() + "]");
-        }
-        if (frame.isFinalFragment()) {
-            final String fullMsg = this.frames.toString();
-            this.frames = null;
-            this.webSocket.message(fullMsg);
+            // The handler is always connected in the XWiki context of the handshake, which is cleaned up once the
+            // handshake is done.
+            WebSocketContextInitializer.Snapshot snapshot = this.xcontextInitializer.snapshot();
+            WebSocketContextInitializer initializer = this.xcontextInitializer;
+            return () -> initializer.run(snapshot, connectCallback);
         }
     }
 
@@ -20,18 +20,27 @@
 package org.xwiki.contrib.websocket.internal;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.component.phase.Disposable;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.contrib.websocket.WebSocketConfig;
+import org.xwiki.contrib.websocket.WebSocketThreadAffinity;
 
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
@@ -39,16 +48,17 @@ import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandler;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.util.SelfSignedCertificate;
+import io.netty.handler.timeout.IdleStateHandler;
 
 /**
  * Netty-based WebSocket service implementation.
@@ -72,11 +82,33 @@ public class NettyWebSocketService implements Initializable, Disposable
         public void initChannel(SocketChannel channel) throws Exception
         {
             ChannelPipeline pipeline = channel.pipeline();
+            if (config.getMaxConnections() > 0 || config.getMaxConnectionsPerAddress() > 0) {
+                pipeline.addLast(connectionLimitHandler);
+            }
             if (sslContext != null) {
                 pipeline.addLast(sslContext.newHandler(channel.alloc()));
             }
+            if (config.isWriteBatchingEnabled()) {
+                pipeline.addLast(new WriteBatchingHandler(config.getWriteBatchingMaxMessages(),
+                    config.getWriteBatchingMaxBytes()));
+            }
             pipeline.addLast(new HttpServerCodec());
-            pipeline.addLast(new HttpObjectAggregator(65536));
+            pipeline.addLast(new HttpObjectAggregator(NettyWebSocketRequestHandler.MAX_HANDSHAKE_CONTENT_LENGTH));
+            if (config.isCompressionEnabled()) {
+                pipeline.addLast(new WebSocketServerExtensionHandler(
+                    new PerMessageDeflateThresholdHandshaker(config.getCompressionLevel(),
+                        config.getCompressionWindowBits(), config.isCompressionContextTakeover(),
+                        config.getCompressionThreshold(), config.maxFrameSize())));
+            }
+            if (config.getIdleReadTimeout() > 0 || config.getIdleWriteTimeout() > 0) {
+                pipeline.addLast(new IdleStateHandler(config.getIdleReadTimeout(), config.getIdleWriteTimeout(), 0,
+                    TimeUnit.SECONDS));
+                pipeline.addLast(new IdleConnectionHandler(TimeUnit.SECONDS.toMillis(config.getPongTimeout()),
+                    reapedConnections));
+            }
+            if (config.getMessageRateLimit() > 0 || config.getByteRateLimit() > 0) {
+                pipeline.addLast(new MessageRateLimitHandler(config.getMessageRateLimit(), config.getByteRateLimit()));
+            }
             pipeline.addLast(requestHandlerProvider.get());
         }
     }
@@ -90,7 +122,21 @@ public class NettyWebSocketService implements Initializable, Disposable
     @Inject
     private Provider<NettyWebSocketRequestHandler> requestHandlerProvider;
 
-    private Channel channel;
+    @Inject
+    private ComponentManager componentManager;
+
+    @Inject
+    private WebSocketConnectionLimiter connectionLimiter;
+
+    private ConnectionLimitHandler connectionLimitHandler;
+
+    private final List<Channel> channels = new ArrayList<>();
+
+    private final AtomicLong reapedConnections = new AtomicLong();
+
+    private EventLoopGroup bossGroup;
+
+    private EventLoopGroup workerGroup;
 
     @Override
     public void initialize()
@@ -122,23 +168,61 @@ public class NettyWebSocketService implements Initializable, Disposable
             }
         }
 
-        final EventLoopGroup bossGroup = new NioEventLoopGroup(1);
-        final EventLoopGroup workerGroup = new NioEventLoopGroup();
+        this.connectionLimitHandler = new ConnectionLimitHandler(this.connectionLimiter);
+
+        NettyTransport transport = NettyTransport.select(this.config.getTransport(), this.logger);
+        this.logger.debug("Using the [{}] transport for the WebSocket service.", transport);
+
+        WebSocketThreadAffinity affinity = getThreadAffinity();
+        String threadNamePrefix = this.config.getThreadNamePrefix();
+        int bossThreads = Math.max(1, this.config.getBossThreads());
+        this.bossGroup = transport.newEventLoopGroup(bossThreads,
+            new EventLoopThreadFactory(threadNamePrefix + "-boss", affinity));
+        this.workerGroup = transport.newEventLoopGroup(Math.max(0, this.config.getWorkerThreads()),
+            new EventLoopThreadFactory(threadNamePrefix + "-worker", affinity));
 
         ServerBootstrap serverBootstrap = new ServerBootstrap();
 
         // Get rid of silly lag.
         serverBootstrap.childOption(ChannelOption.TCP_NODELAY, Boolean.TRUE);
+        // Notify the WebSocket handlers when a client can't keep up with the messages sent to it.
+        serverBootstrap.childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+            this.config.getWriteBufferLowWaterMark(), this.config.getWriteBufferHighWaterMark()));
 
-        serverBootstrap.group(bossGroup, workerGroup).channel(NioServerSocketChannel.class)
+        serverBootstrap.group(this.bossGroup, this.workerGroup).channel(transport.getServerChannelClass())
             .handler(new LoggingHandler(LogLevel.INFO)).childHandler(new WebSocketServerInitializer(sslContext));
 
-        this.channel = serverBootstrap.bind(this.config.getBindTo(), this.config.getPort()).sync().channel();
+        // With SO_REUSEPORT we bind one server channel per boss thread so that the kernel balances the incoming
+        // connections between multiple accept loops.
+        int bindings = 1;
+        if (this.config.isReusePortEnabled()) {
+            if (transport.enableReusePort(serverBootstrap)) {
+                bindings = bossThreads;
+            } else {
+                this.logger.warn("websocket.reusePort = true but the [{}] transport doesn't support SO_REUSEPORT.",
+                    transport);
+            }
+        }
+
+        for (int i = 0; i < bindings; i++) {
+            this.channels.add(serverBootstrap.bind(this.config.getBindTo(), this.config.getPort()).sync().channel());
+        }
+    }
+
+    private WebSocketThreadAffinity getThreadAffinity()
+    {
+        String hint = this.config.getThreadAffinity();
+        if (StringUtils.isEmpty(hint)) {
+            return null;
+        }
 
-        this.channel.closeFuture().addListener(channelFuture -> {
-            bossGroup.shutdownGracefully();
-            workerGroup.shutdownGracefully();
-        });
+        try {
+            return this.componentManager.getInstance(WebSocketThreadAffinity.class, hint);
+        } catch (ComponentLookupException e) {
+            this.logger.warn("Failed to lookup the WebSocket thread affinity [{}]. Threads won't be pinned. "
+                + "Root cause is [{}].", hint, ExceptionUtils.getRootCauseMessage(e));
+            return null;
+        }
     }
 
     private void checkCertChainAndPrivKey(File certChain, File privKey)
@@ -163,9 +247,26 @@ public class NettyWebSocketService implements Initializable, Disposable
         }
     }
 
+    /**
+     * @return the number of connections that have been closed because they were idle
+     * @since 1.10
+     */
+    public long getReapedConnectionCount()
+    {
+        return this.reapedConnections.get();
+    }
+
     @Override
     public void dispose() throws ComponentLifecycleException
     {
-        this.channel.close();
+        for (Channel serverChannel : this.channels) {
+            serverChannel.close().awaitUninterruptibly();
+        }
+        if (this.bossGroup != null) {
+            this.bossGroup.shutdownGracefully();
+        }
+        if (this.workerGroup != null) {
+            this.workerGroup.shutdownGracefully();
+        }
     }
 }
@@ -20,15 +20,17 @@
 package org.xwiki.contrib.websocket.internal;
 
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Function;
-import java.util.stream.Collectors;
 
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpSession;
@@ -37,26 +39,59 @@ import com.xpn.xwiki.web.XWikiRequest;
 import com.xpn.xwiki.web.XWikiServletRequestStub;
 
 import io.netty.channel.Channel;
+import io.netty.handler.codec.DateFormatter;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
 import io.netty.handler.codec.http.QueryStringDecoder;
 import io.netty.handler.codec.http.cookie.ServerCookieDecoder;
 
 /**
  * Adapts a {@link FullHttpRequest} to {@link XWikiRequest}.
+ * <p>
+ * The XWiki request is kept for the whole life of the WebSocket connection (it is part of the XWiki context in which
+ * the handler callbacks are executed) so it is an immutable snapshot of the handshake request: it doesn't keep a
+ * reference to the Netty request, whose buffers are released after the handshake, nor to the channel. The headers are
+ * stored in a flat array instead of a hash table. The cookies, the query string parameters and the path are decoded on
+ * demand, and only once, since most handlers don't need them. For a typical browser handshake (about 1 KB of
+ * headers, including a few cookies) the snapshot retains less than {@value #REQUEST_SNAPSHOT_MEMORY_BUDGET} bytes.
  * 
  * @version $Id$
  */
 public class NettyXWikiWebSocketRequest extends XWikiServletRequestStub implements XWikiWebSocketRequest
 {
-    private final HttpRequest request;
+    /**
+     * The number of bytes a request snapshot is expected to retain for a typical browser handshake. This covers only
+     * the request snapshot, see {@link NettyWebSocketFrameHandler#CONNECTION_MEMORY_BUDGET} for the whole connection
+     * state.
+     */
+    static final int REQUEST_SNAPSHOT_MEMORY_BUDGET = 4096;
+
+    private static final Cookie[] NO_COOKIES = new Cookie[0];
+
+    private final String method;
 
-    private final Channel channel;
+    private final String uri;
+
+    private final HttpVersion protocolVersion;
+
+    /**
+     * The header names and values, alternated: {@code [name0, value0, name1, value1, ...]}.
+     */
+    private final String[] headers;
+
+    private final SocketAddress remoteAddress;
+
+    private final SocketAddress localAddress;
 
     private final WebSocketURI webSocketURI;
 
-    private final Map<String, Cookie> cookies;
+    private volatile Cookie[] cookies;
+
+    private volatile Map<String, String[]> parameters;
+
+    private volatile String pathInfo;
 
     private final HttpSession session = new HttpSessionStub();
 
@@ -70,12 +105,28 @@ public class NettyXWikiWebSocketRequest extends XWikiServletRequestStub implemen
      */
     public NettyXWikiWebSocketRequest(HttpRequest request, Channel channel) throws URISyntaxException
     {
-        super(null, decodeParameters(request.uri()));
+        // The parameters are decoded on demand.
+        super(null, null);
+
+        this.method = request.method().name();
+        this.uri = request.uri();
+        this.protocolVersion = request.protocolVersion();
+        this.headers = copyHeaders(request);
+        this.remoteAddress = channel.remoteAddress();
+        this.localAddress = channel.localAddress();
+        this.webSocketURI = new WebSocketURI(this.uri);
+    }
 
-        this.request = request;
-        this.channel = channel;
-        this.webSocketURI = new WebSocketURI(request.uri());
-        this.cookies = parseCookies();
+    private static String[] copyHeaders(HttpRequest request)
+    {
+        String[] headers = new String[request.headers().size() * 2];
+        int i = 0;
+        for (Iterator<Map.Entry<String, String>> it = request.headers().iteratorAsString(); it.hasNext();) {
+            Map.Entry<String, String> header = it.next();
+            headers[i++] = header.getKey();
+            headers[i++] = header.getValue();
+        }
+        return headers;
     }
 
     @Override
@@ -87,79 +138,120 @@ public class NettyXWikiWebSocketRequest extends XWikiServletRequestStub implemen
     @Override
     public String getHeader(String name)
     {
-        return this.request.headers().get(name);
+        for (int i = 0; i < this.headers.length; i += 2) {
+            if (this.headers[i].equalsIgnoreCase(name)) {
+                return this.headers[i + 1];
+            }
+        }
+        return null;
     }
 
     @Override
     public Enumeration<String> getHeaders(String name)
     {
-        return Collections.enumeration(this.request.headers().getAll(name));
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < this.headers.length; i += 2) {
+            if (this.headers[i].equalsIgnoreCase(name)) {
+                values.add(this.headers[i + 1]);
+            }
+        }
+        return Collections.enumeration(values);
     }
 
     @Override
     public Enumeration<String> getHeaderNames()
     {
-        return Collections.enumeration(this.request.headers().names());
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < this.headers.length; i += 2) {
+            String name = this.headers[i];
+            if (names.stream().noneMatch(name::equalsIgnoreCase)) {
+                names.add(name);
+            }
+        }
+        return Collections.enumeration(names);
     }
 
     @Override
     public long getDateHeader(String name)
     {
-        return this.request.headers().getTimeMillis(name);
+        String value = getHeader(name);
+        if (value == null) {
+            return -1;
+        }
+        Date date = DateFormatter.parseHttpDate(value);
+        if (date == null) {
+            throw new IllegalArgumentException("Invalid date header [" + name + "]: [" + value + "]");
+        }
+        return date.getTime();
     }
 
     @Override
     public int getIntHeader(String name)
     {
-        return this.request.headers().getInt(name);
+        String value = getHeader(name);
+        return value == null ? -1 : Integer.parseInt(value);
     }
 
     @Override
     public Cookie getCookie(String cookieName)
     {
-        return this.cookies.get(cookieName);
+        for (Cookie cookie : getCookieArray()) {
+            if (cookie.getName().equals(cookieName)) {
+                return cookie;
+            }
+        }
+        return null;
     }
 
     @Override
     public Cookie[] getCookies()
     {
-        return this.cookies.values().stream().toArray(Cookie[]::new);
+        return getCookieArray().clone();
+    }
+
+    private Cookie[] getCookieArray()
+    {
+        Cookie[] cookieArray = this.cookies;
+        if (cookieArray == null) {
+            cookieArray = parseCookies();
+            this.cookies = cookieArray;
+        }
+        return cookieArray;
     }
 
-    private Map<String, Cookie> parseCookies()
+    private Cookie[] parseCookies()
     {
-        String cookieString = this.request.headers().get(HttpHeaderNames.COOKIE);
+        String cookieString = getHeader(HttpHeaderNames.COOKIE.toString());
         if (cookieString != null) {
             return ServerCookieDecoder.LAX.decode(cookieString).stream()
-                .map(nettyCookie -> new Cookie(nettyCookie.name(), nettyCookie.value()))
-                .collect(Collectors.toMap(Cookie::getName, Function.identity()));
+                .map(nettyCookie -> new Cookie(nettyCookie.name(), nettyCookie.value())).toArray(Cookie[]::new);
         } else {
-            return Collections.emptyMap();
+            return NO_COOKIES;
         }
     }
 
     @Override
     public String getMethod()
     {
-        return this.request.method().name();
+        return this.method;
     }
 
     @Override
     public String getRequestURI()
     {
-        return this.request.uri();
+        return this.uri;
     }
 
     @Override
     public String getScheme()
     {
-        return this.request.protocolVersion().protocolName();
+        return this.protocolVersion.protocolName();
     }
 
     @Override
     public String getProtocol()
     {
-        return this.request.protocolVersion().text();
+        return this.protocolVersion.text();
     }
 
     @Override
@@ -174,13 +266,54 @@ public class NettyXWikiWebSocketRequest extends XWikiServletRequestStub implemen
         return getHeader(HttpHeaderNames.CONTENT_TYPE.toString());
     }
 
+    @Override
+    public String get(String name)
+    {
+        return getParameter(name);
+    }
+
+    @Override
+    public String getParameter(String name)
+    {
+        String[] values = getParameterMap().get(name);
+        return values != null && values.length > 0 ? values[0] : null;
+    }
+
+    @Override
+    public String[] getParameterValues(String name)
+    {
+        String[] values = getParameterMap().get(name);
+        return values != null ? values.clone() : null;
+    }
+
+    @Override
+    public Enumeration<String> getParameterNames()
+    {
+        return Collections.enumeration(getParameterMap().keySet());
+    }
+
+    @Override
+    public Map<String, String[]> getParameterMap()
+    {
+        Map<String, String[]> parameterMap = this.parameters;
+        if (parameterMap == null) {
+            parameterMap = decodeParameters(this.uri);
+            this.parameters = parameterMap;
+        }
+        return parameterMap;
+    }
+
     private static Map<String, String[]> decodeParameters(String uri)
     {
+        Map<String, List<String>> decodedParameters = new QueryStringDecoder(uri).parameters();
+        if (decodedParameters.isEmpty()) {
+            return Collections.emptyMap();
+        }
         Map<String, String[]> parameters = new HashMap<>();
-        for (Map.Entry<String, List<String>> entry : new QueryStringDecoder(uri).parameters().entrySet()) {
+        for (Map.Entry<String, List<String>> entry : decodedParameters.entrySet()) {
             parameters.put(entry.getKey(), entry.getValue().toArray(new String[] {}));
         }
-        return parameters;
+        return Collections.unmodifiableMap(parameters);
     }
 
     @Override
@@ -198,37 +331,37 @@ public class NettyXWikiWebSocketRequest extends XWikiServletRequestStub implemen
     @Override
     public String getRemoteAddr()
     {
-        return ((InetSocketAddress) this.channel.remoteAddress()).getAddress().getHostAddress();
+        return ((InetSocketAddress) this.remoteAddress).getAddress().getHostAddress();
     }
 
     @Override
     public String getRemoteHost()
     {
-        return ((InetSocketAddress) this.channel.remoteAddress()).getHostName();
+        return ((InetSocketAddress) this.remoteAddress).getHostName();
     }
 
     @Override
     public int getRemotePort()
     {
-        return ((InetSocketAddress) this.channel.remoteAddress()).getPort();
+        return ((InetSocketAddress) this.remoteAddress).getPort();
     }
 
     @Override
     public String getLocalName()
     {
-        return ((InetSocketAddress) this.channel.localAddress()).getHostName();
+        return ((InetSocketAddress) this.localAddress).getHostName();
     }
 
     @Override
     public String getLocalAddr()
     {
-        return ((InetSocketAddress) this.channel.localAddress()).getAddress().getHostAddress();
+        return ((InetSocketAddress) this.localAddress).getAddress().getHostAddress();
     }
 
     @Override
     public int getLocalPort()
     {
-        return ((InetSocketAddress) this.channel.localAddress()).getPort();
+        return ((InetSocketAddress) this.localAddress).getPort();
     }
 
     @Override
@@ -252,10 +385,16 @@ public class NettyXWikiWebSocketRequest extends XWikiServletRequestStub implemen
     @Override
     public String getPathInfo()
     {
-        try {
-            return new URI(this.request.uri()).getPath();
-        } catch (URISyntaxException e) {
-            return null;
+        String path = this.pathInfo;
+        if (path == null) {
+            try {
+                path = new URI(this.uri).getPath();
+                this.pathInfo = path;
+            } catch (URISyntaxException e) {
+                // Not possible since the URI has been validated when the WebSocket URI was parsed.
+                return null;
+            }
         }
+        return path;
     }
 }
@@ -0,0 +1,182 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes the tasks of a single WebSocket connection one after another, in submission order, on a shared executor.
+ * At most one task of a given connection runs at any time, but tasks of different connections can run in parallel.
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+public class OrderedExecutor implements Executor
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(OrderedExecutor.class);
+
+    /**
+     * The maximum number of tasks executed in a row before giving the thread back to the other connections.
+     */
+    private static final int MAX_BATCH = 16;
+
+    private final Executor delegate;
+
+    private final int maxPending;
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The number of tasks that are either waiting or being executed, checked against the limit.
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * The number of tasks the drain loop still has to execute. The drain loop is scheduled when it goes from 0 to 1.
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private volatile UnaryOperator<Runnable> decorator = UnaryOperator.identity();
+
+    /**
+     * Creates a new ordered executor.
+     * 
+     * @param delegate the shared executor used to run the tasks
+     * @param maxPending the maximum number of tasks that can wait for execution, {@code 0} or less for no limit
+     */
+    public OrderedExecutor(Executor delegate, int maxPending)
+    {
+        this.delegate = delegate;
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Wraps the tasks submitted from now on. The decorators are applied in the reverse order they are added, so the
+     * first decorator added is the outermost one.
+     * 
+     * @param taskDecorator the function used to wrap the submitted tasks
+     */
+    public void decorate(UnaryOperator<Runnable> taskDecorator)
+    {
+        UnaryOperator<Runnable> previous = this.decorator;
+        this.decorator = task -> previous.apply(taskDecorator.apply(task));
+    }
+
+    @Override
+    public void execute(Runnable task)
+    {
+        // Reserve the slot before enqueuing the task so that concurrent submitters can't exceed the limit.
+        int current;
+        do {
+            current = this.size.get();
+            if (this.maxPending > 0 && current >= this.maxPending) {
+                throw new RejectedExecutionException(
+                    String.format("Too many pending tasks [%s] for the WebSocket connection.", this.maxPending));
+            }
+        } while (!this.size.compareAndSet(current, current + 1));
+
+        submit(this.decorator.apply(task), true);
+    }
+
+    /**
+     * Executes a task after all the tasks submitted before, ignoring the limit of pending tasks. This is meant for the
+     * tasks that must not be lost, such as the notification that the connection is closed. The task is executed on the
+     * calling thread, after the pending tasks, if the shared executor rejects it.
+     * 
+     * @param task the task to execute
+     */
+    public void executeUnbounded(Runnable task)
+    {
+        this.size.incrementAndGet();
+        submit(this.decorator.apply(task), false);
+    }
+
+    private void submit(Runnable task, boolean rejectable)
+    {
+        // Add the task before incrementing the counter so that the drain loop always finds it.
+        this.tasks.add(task);
+        if (this.pending.getAndIncrement() == 0) {
+            try {
+                this.delegate.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                if (rejectable && this.pending.compareAndSet(1, 0)) {
+                    // No other task was submitted meanwhile so we can take ours back.
+                    this.tasks.remove(task);
+                    this.size.decrementAndGet();
+                    throw e;
+                }
+                // The tasks submitted meanwhile count on the drain loop we failed to schedule so we run it ourselves,
+                // like the drain loop does when the shared executor is saturated.
+                drain();
+            }
+        }
+    }
+
+    /**
+     * @return the number of tasks that are either waiting or being executed
+     */
+    public int getPendingCount()
+    {
+        return this.size.get();
+    }
+
+    private void drain()
+    {
+        int executed = 0;
+        do {
+            run(this.tasks.poll());
+            this.size.decrementAndGet();
+            executed++;
+            if (this.pending.decrementAndGet() == 0) {
+                return;
+            }
+            // Give the thread back to the other connections after a batch, unless the shared executor is saturated, in
+            // which case we keep running the remaining tasks ourselves.
+        } while (executed < MAX_BATCH || !reschedule());
+    }
+
+    private boolean reschedule()
+    {
+        try {
+            this.delegate.execute(this::drain);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private void run(Runnable task)
+    {
+        try {
+            task.run();
+        } catch (Exception e) {
+            LOGGER.warn("Exception in WebSocket task. Root cause is [{}].", ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionDecoder;
+
+/**
+ * Decompresses the incoming messages as specified by the permessage-deflate extension (RFC 7692), failing as soon as a
+ * decompressed message exceeds the maximum message size. The Netty decoder decompresses a whole frame before we can
+ * check its size, so a small frame that decompresses to gigabytes (a decompression bomb) would exhaust the memory.
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+public class PerMessageDeflateLimitedDecoder extends WebSocketExtensionDecoder
+{
+    private static final byte[] FRAME_TAIL = new byte[] {0x00, 0x00, (byte) 0xff, (byte) 0xff};
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private final boolean noContext;
+
+    private final int maxMessageSize;
+
+    private Inflater inflater;
+
+    /**
+     * Whether a fragmented message is being decompressed.
+     */
+    private boolean decompressing;
+
+    /**
+     * The decompressed size of the current message.
+     */
+    private long messageSize;
+
+    /**
+     * Creates a new decoder.
+     * 
+     * @param noContext whether the client resets the compression context after each message
+     * @param maxMessageSize the maximum size of a decompressed message
+     */
+    public PerMessageDeflateLimitedDecoder(boolean noContext, int maxMessageSize)
+    {
+        this.noContext = noContext;
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    @Override
+    public boolean acceptInboundMessage(Object message) throws Exception
+    {
+        if (message instanceof ContinuationWebSocketFrame) {
+            return this.decompressing;
+        } else if (message instanceof TextWebSocketFrame || message instanceof BinaryWebSocketFrame) {
+            // Only the first frame of a compressed message has the RSV1 bit set.
+            return (((WebSocketFrame) message).rsv() & WebSocketExtension.RSV1) != 0;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext context, WebSocketFrame message, List<Object> out) throws Exception
+    {
+        if (this.inflater == null) {
+            // The compressed data has no zlib header nor checksum.
+            this.inflater = new Inflater(true);
+        }
+        if (!(message instanceof ContinuationWebSocketFrame)) {
+            this.messageSize = 0;
+        }
+
+        CompositeByteBuf content = context.alloc().compositeBuffer(Integer.MAX_VALUE);
+        try {
+            inflate(context, ByteBufUtil.getBytes(message.content()), content);
+            if (message.isFinalFragment()) {
+                // The empty deflate block removed by the client must be added back.
+                inflate(context, FRAME_TAIL, content);
+                if (this.noContext) {
+                    this.inflater.reset();
+                }
+            }
+        } catch (Exception e) {
+            content.release();
+            throw e;
+        }
+
+        this.decompressing = !message.isFinalFragment();
+        out.add(newFrame(message, content));
+    }
+
+    private void inflate(ChannelHandlerContext context, byte[] input, CompositeByteBuf output)
+        throws DataFormatException, TooLongFrameException
+    {
+        this.inflater.setInput(input);
+        byte[] chunk = new byte[CHUNK_SIZE];
+        for (int length = this.inflater.inflate(chunk); length > 0; length = this.inflater.inflate(chunk)) {
+            this.messageSize += length;
+            if (this.messageSize > this.maxMessageSize) {
+                throw new TooLongFrameException("Decompressed message size too big [" + this.messageSize
+                    + "] max message size [" + this.maxMessageSize + "]");
+            }
+            output.addComponent(true, context.alloc().buffer(length).writeBytes(chunk, 0, length));
+        }
+    }
+
+    private WebSocketFrame newFrame(WebSocketFrame message, ByteBuf content)
+    {
+        if (message instanceof TextWebSocketFrame) {
+            return new TextWebSocketFrame(message.isFinalFragment(), message.rsv() & ~WebSocketExtension.RSV1, content);
+        } else if (message instanceof BinaryWebSocketFrame) {
+            return new BinaryWebSocketFrame(message.isFinalFragment(), message.rsv() & ~WebSocketExtension.RSV1,
+                content);
+        } else {
+            return new ContinuationWebSocketFrame(message.isFinalFragment(), message.rsv(), content);
+        }
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext context) throws Exception
+    {
+        if (this.inflater != null) {
+            // Release the native memory of the inflater.
+            this.inflater.end();
+            this.inflater = null;
+        }
+        super.handlerRemoved(context);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.CodecException;
+import io.netty.handler.codec.compression.ZlibCodecFactory;
+import io.netty.handler.codec.compression.ZlibWrapper;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionEncoder;
+
+/**
+ * Compresses the outgoing messages as specified by the permessage-deflate extension (RFC 7692), leaving uncompressed
+ * the messages that are too small to benefit from compression.
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+public class PerMessageDeflateThresholdEncoder extends WebSocketExtensionEncoder
+{
+    private static final byte[] FRAME_TAIL = new byte[] {0x00, 0x00, (byte) 0xff, (byte) 0xff};
+
+    private static final int MEMORY_LEVEL = 8;
+
+    private final int compressionLevel;
+
+    private final int windowSize;
+
+    private final boolean noContext;
+
+    private final int threshold;
+
+    private EmbeddedChannel encoder;
+
+    /**
+     * Whether a fragmented message is being compressed.
+     */
+    private boolean compressing;
+
+    /**
+     * Creates a new encoder.
+     * 
+     * @param compressionLevel the compression level, between 0 and 9
+     * @param windowSize the size of the compression window, between 8 and 15
+     * @param noContext whether to reset the compression context after each message
+     * @param threshold the minimum size of a message (in bytes) for it to be compressed
+     */
+    public PerMessageDeflateThresholdEncoder(int compressionLevel, int windowSize, boolean noContext, int threshold)
+    {
+        this.compressionLevel = compressionLevel;
+        this.windowSize = windowSize;
+        this.noContext = noContext;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public boolean acceptOutboundMessage(Object message) throws Exception
+    {
+        if (message instanceof ContinuationWebSocketFrame) {
+            return this.compressing;
+        } else if (message instanceof TextWebSocketFrame || message instanceof BinaryWebSocketFrame) {
+            WebSocketFrame frame = (WebSocketFrame) message;
+            return (frame.rsv() & WebSocketExtension.RSV1) == 0 && frame.content().readableBytes() >= this.threshold;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext context, WebSocketFrame message, List<Object> out) throws Exception
+    {
+        if (this.encoder == null) {
+            this.encoder = new EmbeddedChannel(ZlibCodecFactory.newZlibEncoder(ZlibWrapper.NONE,
+                this.compressionLevel, this.windowSize, MEMORY_LEVEL));
+        }
+
+        this.encoder.writeOutbound(message.content().retain());
+
+        CompositeByteBuf fullCompressedContent = context.alloc().compositeBuffer();
+        for (ByteBuf partial = this.encoder.readOutbound(); partial != null; partial = this.encoder.readOutbound()) {
+            if (partial.isReadable()) {
+                fullCompressedContent.addComponent(true, partial);
+            } else {
+                partial.release();
+            }
+        }
+        if (fullCompressedContent.numComponents() <= 0) {
+            fullCompressedContent.release();
+            throw new CodecException("Cannot read the compressed buffer.");
+        }
+
+        ByteBuf compressedContent = fullCompressedContent;
+        if (message.isFinalFragment()) {
+            // The compressed message ends with an empty deflate block which must be removed.
+            compressedContent =
+                fullCompressedContent.slice(0, fullCompressedContent.readableBytes() - FRAME_TAIL.length);
+            if (this.noContext) {
+                cleanup();
+            }
+        }
+
+        this.compressing = !message.isFinalFragment();
+        out.add(newFrame(message, compressedContent));
+    }
+
+    private WebSocketFrame newFrame(WebSocketFrame message, ByteBuf content)
+    {
+        if (message instanceof TextWebSocketFrame) {
+            return new TextWebSocketFrame(message.isFinalFragment(), message.rsv() | WebSocketExtension.RSV1, content);
+        } else if (message instanceof BinaryWebSocketFrame) {
+            return new BinaryWebSocketFrame(message.isFinalFragment(), message.rsv() | WebSocketExtension.RSV1,
+                content);
+        } else {
+            // Only the first frame of a compressed message has the RSV1 bit set.
+            return new ContinuationWebSocketFrame(message.isFinalFragment(), message.rsv(), content);
+        }
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext context) throws Exception
+    {
+        cleanup();
+        super.handlerRemoved(context);
+    }
+
+    private void cleanup()
+    {
+        if (this.encoder != null) {
+            // Clean up the remaining compressed data.
+            this.encoder.finishAndReleaseAll();
+            this.encoder = null;
+        }
+    }
+}
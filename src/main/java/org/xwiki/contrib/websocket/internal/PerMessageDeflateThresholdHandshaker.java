@@ -0,0 +1,119 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionData;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionDecoder;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionEncoder;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandshaker;
+import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateServerExtensionHandshaker;
+
+/**
+ * Negotiates the permessage-deflate extension (RFC 7692) using the Netty implementation, but compresses only the
+ * messages that are big enough to benefit from it and limits the size of the decompressed messages.
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+public class PerMessageDeflateThresholdHandshaker implements WebSocketServerExtensionHandshaker
+{
+    private static final String SERVER_MAX_WINDOW = "server_max_window_bits";
+
+    private static final String SERVER_NO_CONTEXT = "server_no_context_takeover";
+
+    private static final String CLIENT_NO_CONTEXT = "client_no_context_takeover";
+
+    private static final int MAX_WINDOW_SIZE = 15;
+
+    private final PerMessageDeflateServerExtensionHandshaker handshaker;
+
+    private final int compressionLevel;
+
+    private final boolean contextTakeover;
+
+    private final int threshold;
+
+    private final int maxMessageSize;
+
+    /**
+     * Creates a new handshaker.
+     * 
+     * @param compressionLevel the compression level, between 0 and 9
+     * @param clientWindowSize the compression window size requested to the client, between 8 and 15
+     * @param contextTakeover whether to keep the compression context between messages, which improves compression at
+     *            the cost of memory
+     * @param threshold the minimum size of a message (in bytes) for it to be compressed
+     * @param maxMessageSize the maximum size of a received message, once decompressed
+     */
+    public PerMessageDeflateThresholdHandshaker(int compressionLevel, int clientWindowSize, boolean contextTakeover,
+        int threshold, int maxMessageSize)
+    {
+        this.handshaker = new PerMessageDeflateServerExtensionHandshaker(compressionLevel, true, clientWindowSize, true,
+            !contextTakeover);
+        this.compressionLevel = compressionLevel;
+        this.contextTakeover = contextTakeover;
+        this.threshold = threshold;
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    @Override
+    public WebSocketServerExtension handshakeExtension(WebSocketExtensionData extensionData)
+    {
+        WebSocketServerExtension extension = this.handshaker.handshakeExtension(extensionData);
+        if (extension == null) {
+            return null;
+        }
+
+        WebSocketExtensionData responseData = extension.newReponseData();
+        String serverWindowSize = responseData.parameters().get(SERVER_MAX_WINDOW);
+        int windowSize = serverWindowSize != null ? Integer.parseInt(serverWindowSize) : MAX_WINDOW_SIZE;
+        // Resetting the compression context is always allowed, even if the client didn't ask for it.
+        boolean noContext = !this.contextTakeover || responseData.parameters().containsKey(SERVER_NO_CONTEXT);
+        boolean clientNoContext = responseData.parameters().containsKey(CLIENT_NO_CONTEXT);
+
+        return new WebSocketServerExtension()
+        {
+            @Override
+            public int rsv()
+            {
+                return extension.rsv();
+            }
+
+            @Override
+            public WebSocketExtensionEncoder newExtensionEncoder()
+            {
+                return new PerMessageDeflateThresholdEncoder(compressionLevel, windowSize, noContext, threshold);
+            }
+
+            @Override
+            public WebSocketExtensionDecoder newExtensionDecoder()
+            {
+                return new PerMessageDeflateLimitedDecoder(clientNoContext, maxMessageSize);
+            }
+
+            @Override
+            public WebSocketExtensionData newReponseData()
+            {
+                return responseData;
+            }
+        };
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.contrib.websocket.WebSocketConfig;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.ScheduledFuture;
+
+/**
+ * {@link WebSocketRelay} implementation that exchanges the messages with the other nodes of the cluster over TCP. Each
+ * node listens on {@code websocket.cluster.port} and connects to the nodes listed in {@code websocket.cluster.peers},
+ * reconnecting automatically when a connection is lost. The messages sent to a node are batched: they are flushed
+ * once per event loop tick.
+ * <p>
+ * The relay listens on {@code websocket.cluster.bindTo} (the loopback interface by default) and exchanges messages only
+ * with the nodes that know the {@code websocket.cluster.secret}: when a node connects, both nodes send a random nonce
+ * and prove they know the shared secret with an HMAC of both nonces and of their role. The messages themselves are not
+ * encrypted so the relay should listen on a private network interface.
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+@Component
+@Named("tcp")
+@Singleton
+public class TcpWebSocketRelay implements WebSocketRelay, Disposable
+{
+    private static final int LENGTH_FIELD_SIZE = 4;
+
+    /**
+     * The message metadata (identifier, room, type) added to the message content.
+     */
+    private static final int MAX_METADATA_SIZE = 65536;
+
+    private static final long RECONNECT_DELAY = 5;
+
+    /**
+     * The maximum number of received messages waiting to be delivered locally.
+     */
+    private static final int MAX_PENDING_DELIVERIES = 10000;
+
+    /**
+     * The number of seconds the nodes have to authenticate each other.
+     */
+    private static final long HANDSHAKE_TIMEOUT = 10;
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    /**
+     * The size of the random nonces exchanged during the handshake.
+     */
+    private static final int NONCE_SIZE = 32;
+
+    /**
+     * The size of an HMAC-SHA256.
+     */
+    private static final int MAC_SIZE = 32;
+
+    /**
+     * The role labels included in the HMACs so that the proof sent by one side can't be reflected as the proof of the
+     * other side.
+     */
+    private static final String CLIENT_ROLE = "client";
+
+    private static final String SERVER_ROLE = "server";
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Authenticates the nodes to each other. The node that accepts the connection (the server) sends a nonce, the node
+     * that connects (the client) answers with its own nonce and the HMAC of both nonces, and the server proves it knows
+     * the secret too with its own HMAC of both nonces. Removes itself from the pipeline once the other node is
+     * authenticated, passing on the bytes received after the handshake.
+     */
+    private abstract class AbstractHandshakeHandler extends ByteToMessageDecoder
+    {
+        protected final byte[] serverNonce = new byte[NONCE_SIZE];
+
+        protected final byte[] clientNonce = new byte[NONCE_SIZE];
+
+        private ScheduledFuture<?> timeout;
+
+        @Override
+        public void channelActive(ChannelHandlerContext context) throws Exception
+        {
+            this.timeout = context.executor().schedule(() -> {
+                logger.warn("The WebSocket cluster node [{}] didn't complete the authentication in time.",
+                    context.channel().remoteAddress());
+                context.close();
+            }, HANDSHAKE_TIMEOUT, TimeUnit.SECONDS);
+            super.channelActive(context);
+        }
+
+        protected boolean verify(ChannelHandlerContext context, ByteBuf in, String role)
+        {
+            byte[] mac = new byte[MAC_SIZE];
+            in.readBytes(mac);
+            if (MessageDigest.isEqual(sign(role, this.serverNonce, this.clientNonce), mac)) {
+                return true;
+            } else {
+                logger.warn("Rejected the WebSocket cluster node [{}] because it doesn't know the cluster secret.",
+                    context.channel().remoteAddress());
+                in.skipBytes(in.readableBytes());
+                context.close();
+                return false;
+            }
+        }
+
+        @Override
+        protected void handlerRemoved0(ChannelHandlerContext context)
+        {
+            if (this.timeout != null) {
+                this.timeout.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * The server side of the handshake.
+     */
+    private final class ServerHandshakeHandler extends AbstractHandshakeHandler
+    {
+        @Override
+        public void channelActive(ChannelHandlerContext context) throws Exception
+        {
+            RANDOM.nextBytes(this.serverNonce);
+            context.writeAndFlush(Unpooled.wrappedBuffer(this.serverNonce.clone()));
+            super.channelActive(context);
+        }
+
+        @Override
+        protected void decode(ChannelHandlerContext context, ByteBuf in, List<Object> out)
+        {
+            if (in.readableBytes() < NONCE_SIZE + MAC_SIZE) {
+                return;
+            }
+
+            in.readBytes(this.clientNonce);
+            if (verify(context, in, CLIENT_ROLE)) {
+                context.writeAndFlush(Unpooled.wrappedBuffer(sign(SERVER_ROLE, this.serverNonce, this.clientNonce)));
+                context.pipeline().remove(this);
+            }
+        }
+    }
+
+    /**
+     * The client side of the handshake. The node we connected to receives our messages only once it is authenticated.
+     */
+    private final class ClientHandshakeHandler extends AbstractHandshakeHandler
+    {
+        private final String peer;
+
+        private boolean answered;
+
+        ClientHandshakeHandler(String peer)
+        {
+            this.peer = peer;
+        }
+
+        @Override
+        protected void decode(ChannelHandlerContext context, ByteBuf in, List<Object> out)
+        {
+            if (!this.answered) {
+                if (in.readableBytes() < NONCE_SIZE) {
+                    return;
+                }
+                in.readBytes(this.serverNonce);
+                RANDOM.nextBytes(this.clientNonce);
+                context.writeAndFlush(Unpooled.wrappedBuffer(this.clientNonce.clone(),
+                    sign(CLIENT_ROLE, this.serverNonce, this.clientNonce)));
+                this.answered = true;
+            }
+
+            if (in.readableBytes() >= MAC_SIZE && verify(context, in, SERVER_ROLE)) {
+                context.pipeline().remove(this);
+                peers.put(this.peer, context.channel());
+            }
+        }
+    }
+
+    private final class RelayEncoder extends MessageToByteEncoder<WebSocketRelayMessage>
+    {
+        @Override
+        protected void encode(ChannelHandlerContext context, WebSocketRelayMessage message, ByteBuf out)
+            throws Exception
+        {
+            try (ByteBufOutputStream output = new ByteBufOutputStream(out)) {
+                message.writeTo(output);
+            }
+        }
+    }
+
+    private final class RelayDecoder extends SimpleChannelInboundHandler<ByteBuf>
+    {
+        @Override
+        protected void channelRead0(ChannelHandlerContext context, ByteBuf message) throws Exception
+        {
+            WebSocketRelayMessage relayMessage;
+            try (ByteBufInputStream input = new ByteBufInputStream(message)) {
+                relayMessage = WebSocketRelayMessage.readFrom(input, config.maxFrameSize());
+            }
+
+            // The messages are delivered to the room members on a dedicated thread so that a slow member can't stall
+            // the cluster traffic, which is handled by a single network I/O thread.
+            try {
+                delivery.execute(() -> receiver.accept(relayMessage));
+            } catch (RejectedExecutionException e) {
+                logger.warn("Dropped a WebSocket message received from [{}] because too many messages are waiting to "
+                    + "be delivered.", context.channel().remoteAddress());
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext context, Throwable cause)
+        {
+            logger.warn("Failed to receive WebSocket messages from [{}]. Root cause is [{}].",
+                context.channel().remoteAddress(), ExceptionUtils.getRootCauseMessage(cause));
+            context.close();
+        }
+    }
+
+    @Inject
+    private WebSocketConfig config;
+
+    @Inject
+    private Logger logger;
+
+    private final Map<String, Channel> peers = new ConcurrentHashMap<>();
+
+    private volatile boolean stopped;
+
+    private Consumer<WebSocketRelayMessage> receiver;
+
+    private EventLoopGroup group;
+
+    private ExecutorService delivery;
+
+    private NettyTransport transport;
+
+    private Channel serverChannel;
+
+    private SecretKeySpec secret;
+
+    @Override
+    public void start(Consumer<WebSocketRelayMessage> receiver)
+    {
+        String clusterSecret = this.config.getClusterSecret();
+        if (StringUtils.isEmpty(clusterSecret)) {
+            this.logger.error("The WebSocket cluster relay requires a shared secret (websocket.cluster.secret). Room "
+                + "messages won't be sent to the other cluster nodes.");
+            return;
+        }
+
+        this.secret = new SecretKeySpec(clusterSecret.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM);
+        this.receiver = receiver;
+        // A single thread, in order to deliver the messages in the order they are received.
+        this.delivery = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_PENDING_DELIVERIES),
+            new DefaultThreadFactory(this.config.getThreadNamePrefix() + "-relay-delivery", true));
+        this.transport = NettyTransport.select(this.config.getTransport(), this.logger);
+        this.group = this.transport.newEventLoopGroup(1,
+            new EventLoopThreadFactory(this.config.getThreadNamePrefix() + "-relay", null));
+
+        ServerBootstrap serverBootstrap = new ServerBootstrap().group(this.group)
+            .channel(this.transport.getServerChannelClass()).childOption(ChannelOption.TCP_NODELAY, Boolean.TRUE)
+            .childHandler(new ChannelInitializer<SocketChannel>()
+            {
+                @Override
+                protected void initChannel(SocketChannel channel)
+                {
+                    channel.pipeline().addLast(new ServerHandshakeHandler());
+                    channel.pipeline().addLast(new LengthFieldBasedFrameDecoder(
+                        config.maxFrameSize() + MAX_METADATA_SIZE, 0, LENGTH_FIELD_SIZE, 0, LENGTH_FIELD_SIZE));
+                    channel.pipeline().addLast(new RelayDecoder());
+                }
+            });
+        this.serverChannel = serverBootstrap.bind(this.config.getClusterBindTo(), this.config.getClusterPort())
+            .syncUninterruptibly().channel();
+
+        for (String peer : this.config.getClusterPeers()) {
+            if (peer.lastIndexOf(':') > 0) {
+                connect(peer);
+            } else {
+                this.logger.warn("Invalid WebSocket cluster node [{}]. Expecting [host:port].", peer);
+            }
+        }
+    }
+
+    private void connect(String peer)
+    {
+        if (this.stopped) {
+            return;
+        }
+
+        String host = StringUtils.substringBeforeLast(peer, ":");
+        int port = Integer.parseInt(StringUtils.substringAfterLast(peer, ":"));
+        Bootstrap bootstrap = new Bootstrap().group(this.group).channel(this.transport.getSocketChannelClass())
+            .option(ChannelOption.TCP_NODELAY, Boolean.TRUE).handler(new ChannelInitializer<SocketChannel>()
+            {
+                @Override
+                protected void initChannel(SocketChannel channel)
+                {
+                    channel.pipeline().addLast(new ClientHandshakeHandler(peer));
+                    // Flush the messages once per event loop tick.
+                    channel.pipeline().addLast(new WriteBatchingHandler(config.getWriteBatchingMaxMessages(),
+                        config.getWriteBatchingMaxBytes()));
+                    channel.pipeline().addLast(new LengthFieldPrepender(LENGTH_FIELD_SIZE));
+                    channel.pipeline().addLast(new RelayEncoder());
+                }
+            });
+        bootstrap.connect(host, port).addListener((ChannelFutureListener) future -> {
+            if (future.isSuccess()) {
+                // The node is added to the peers once it is authenticated.
+                Channel channel = future.channel();
+                channel.closeFuture().addListener(closeFuture -> {
+                    this.peers.remove(peer, channel);
+                    scheduleReconnect(peer);
+                });
+            } else {
+                this.logger.debug("Failed to connect to the WebSocket cluster node [{}]. Root cause is [{}].", peer,
+                    ExceptionUtils.getRootCauseMessage(future.cause()));
+                scheduleReconnect(peer);
+            }
+        });
+    }
+
+    private void scheduleReconnect(String peer)
+    {
+        if (!this.stopped) {
+            this.group.schedule(() -> connect(peer), RECONNECT_DELAY, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public void publish(WebSocketRelayMessage message)
+    {
+        for (Channel peer : this.peers.values()) {
+            peer.writeAndFlush(message);
+        }
+    }
+
+    /**
+     * @return the number of nodes this relay is connected to and authenticated by
+     */
+    int getPeerCount()
+    {
+        return this.peers.size();
+    }
+
+    private byte[] sign(String role, byte[] serverNonce, byte[] clientNonce)
+    {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(this.secret);
+            mac.update(role.getBytes(StandardCharsets.UTF_8));
+            mac.update(serverNonce);
+            return mac.doFinal(clientNonce);
+        } catch (GeneralSecurityException e) {
+            // Every Java platform supports HmacSHA256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void dispose()
+    {
+        this.stopped = true;
+        if (this.serverChannel != null) {
+            this.serverChannel.close();
+        }
+        for (Channel peer : this.peers.values()) {
+            peer.close();
+        }
+        if (this.group != null) {
+            this.group.shutdownGracefully();
+        }
+        if (this.delivery != null) {
+            this.delivery.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.servlet.http.Cookie;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.contrib.websocket.WebSocketConfig;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Caches the result of the user authentication performed during the WebSocket handshake, in order to avoid
+ * re-validating the same authentication cookies for each connection (e.g. when many clients reconnect at once). The
+ * results are cached per client address because XWiki binds the validation cookie to the address of the client that
+ * logged in: the same cookies sent from another address must be validated again.
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+@Component(roles = WebSocketAuthenticationCache.class)
+@Singleton
+public class WebSocketAuthenticationCache implements Initializable, Disposable
+{
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private WebSocketConfig config;
+
+    private Cache<DocumentReference> cache;
+
+    private List<String> cookieNames;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        if (this.config.isAuthenticationCacheEnabled()) {
+            LRUCacheConfiguration cacheConfiguration =
+                new LRUCacheConfiguration("websocket.authentication", this.config.getAuthenticationCacheSize());
+            cacheConfiguration.getLRUEvictionConfiguration()
+                .setLifespan(this.config.getAuthenticationCacheTimeToLive());
+            try {
+                this.cache = this.cacheManager.createNewCache(cacheConfiguration);
+            } catch (CacheException e) {
+                throw new InitializationException("Failed to create the WebSocket authentication cache.", e);
+            }
+            this.cookieNames = this.config.getAuthenticationCookies();
+        }
+    }
+
+    /**
+     * @param request the WebSocket handshake request
+     * @return the key used to cache the authentication result for the given request, or {@code null} if the result
+     *         shouldn't be cached (e.g. the cache is disabled or the request has no authentication cookies)
+     */
+    public String getKey(XWikiWebSocketRequest request)
+    {
+        if (this.cache == null) {
+            return null;
+        }
+
+        StringBuilder key = new StringBuilder(request.getWebSocketURI().getWiki());
+        key.append(KEY_SEPARATOR).append(request.getRemoteAddr());
+        boolean authenticated = false;
+        for (String cookieName : this.cookieNames) {
+            Cookie cookie = request.getCookie(cookieName);
+            key.append(KEY_SEPARATOR);
+            if (cookie != null) {
+                key.append(cookie.getValue());
+                authenticated = true;
+            }
+        }
+
+        return authenticated ? key.toString() : null;
+    }
+
+    /**
+     * @param key the cache key, see {@link #getKey(XWikiWebSocketRequest)}
+     * @return the cached authenticated user, or {@code null} if there's no cached result for the given key
+     */
+    public DocumentReference get(String key)
+    {
+        DocumentReference userReference = key != null ? this.cache.get(key) : null;
+        if (userReference != null) {
+            this.hitCount.incrementAndGet();
+        } else if (key != null) {
+            this.missCount.incrementAndGet();
+        }
+        return userReference;
+    }
+
+    /**
+     * Caches the authenticated user.
+     * 
+     * @param key the cache key, see {@link #getKey(XWikiWebSocketRequest)}
+     * @param userReference the authenticated user
+     */
+    public void set(String key, DocumentReference userReference)
+    {
+        if (key != null && userReference != null) {
+            this.cache.set(key, userReference);
+        }
+    }
+
+    /**
+     * Removes all the cached authentication results (e.g. after a user has been modified).
+     */
+    public void invalidate()
+    {
+        if (this.cache != null) {
+            this.cache.removeAll();
+        }
+    }
+
+    /**
+     * @return the number of handshakes that were authenticated using the cache
+     */
+    public long getHitCount()
+    {
+        return this.hitCount.get();
+    }
+
+    /**
+     * @return the number of handshakes that had to be authenticated because their result was not cached
+     */
+    public long getMissCount()
+    {
+        return this.missCount.get();
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        if (this.cache != null) {
+            this.cache.dispose();
+        }
+    }
+}
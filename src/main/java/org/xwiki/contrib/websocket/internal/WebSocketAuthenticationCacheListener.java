@@ -0,0 +1,78 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.util.Arrays;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.internal.event.XObjectAddedEvent;
+import com.xpn.xwiki.internal.event.XObjectDeletedEvent;
+import com.xpn.xwiki.internal.event.XObjectUpdatedEvent;
+import com.xpn.xwiki.objects.BaseObjectReference;
+
+/**
+ * Invalidates the {@link WebSocketAuthenticationCache} when a user is created, modified (e.g. the password is changed
+ * or the account is disabled) or deleted.
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+@Component
+@Named(WebSocketAuthenticationCacheListener.NAME)
+@Singleton
+public class WebSocketAuthenticationCacheListener extends AbstractEventListener
+{
+    /**
+     * The name used to register this event listener.
+     */
+    public static final String NAME = "org.xwiki.contrib.websocket.internal.WebSocketAuthenticationCacheListener";
+
+    private static final EntityReference USER_OBJECT = BaseObjectReference.any("XWiki.XWikiUsers");
+
+    @Inject
+    private Provider<WebSocketAuthenticationCache> authenticationCacheProvider;
+
+    /**
+     * Default constructor.
+     */
+    public WebSocketAuthenticationCacheListener()
+    {
+        super(NAME, Arrays.asList(new XObjectAddedEvent(USER_OBJECT), new XObjectUpdatedEvent(USER_OBJECT),
+            new XObjectDeletedEvent(USER_OBJECT)));
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (source instanceof XWikiDocument) {
+            this.authenticationCacheProvider.get().invalidate();
+        }
+    }
+}
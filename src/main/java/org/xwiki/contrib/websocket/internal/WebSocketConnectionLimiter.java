@@ -0,0 +1,194 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.contrib.websocket.WebSocketConfig;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Limits the number of WebSocket connections: in total, per remote address and per authenticated user. The counters
+ * per address and per user are updated atomically in a concurrent map, which locks only the updated bin, so
+ * connections from different clients don't contend with each other.
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+@Component(roles = WebSocketConnectionLimiter.class)
+@Singleton
+public class WebSocketConnectionLimiter implements Initializable
+{
+    @Inject
+    private WebSocketConfig config;
+
+    private int maxConnections;
+
+    private int maxConnectionsPerAddress;
+
+    private int maxConnectionsPerUser;
+
+    private final AtomicInteger connections = new AtomicInteger();
+
+    private final ConcurrentMap<InetAddress, Integer> connectionsPerAddress = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<DocumentReference, Integer> connectionsPerUser = new ConcurrentHashMap<>();
+
+    private final AtomicLong rejectedConnections = new AtomicLong();
+
+    @Override
+    public void initialize()
+    {
+        this.maxConnections = this.config.getMaxConnections();
+        this.maxConnectionsPerAddress = this.config.getMaxConnectionsPerAddress();
+        this.maxConnectionsPerUser = this.config.getMaxConnectionsPerUser();
+    }
+
+    /**
+     * Acquires a connection for the given remote address. The connection must be released with
+     * {@link #releaseConnection(InetAddress)} if this method returns {@code true}.
+     * 
+     * @param address the remote address of the new connection, {@code null} if unknown
+     * @return {@code true} if the connection is accepted, {@code false} if a limit has been reached
+     */
+    public boolean acquireConnection(InetAddress address)
+    {
+        if (!acquire(this.connections, this.maxConnections)) {
+            this.rejectedConnections.incrementAndGet();
+            return false;
+        } else if (address != null && !acquire(this.connectionsPerAddress, address, this.maxConnectionsPerAddress)) {
+            release(this.connections, this.maxConnections);
+            this.rejectedConnections.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Releases a connection acquired with {@link #acquireConnection(InetAddress)}.
+     * 
+     * @param address the remote address of the closed connection
+     */
+    public void releaseConnection(InetAddress address)
+    {
+        if (address != null) {
+            release(this.connectionsPerAddress, address, this.maxConnectionsPerAddress);
+        }
+        release(this.connections, this.maxConnections);
+    }
+
+    /**
+     * Acquires a connection for the given authenticated user. The connection must be released with
+     * {@link #releaseUserConnection(DocumentReference)} if this method returns {@code true}.
+     * 
+     * @param user the authenticated user
+     * @return {@code true} if the connection is accepted, {@code false} if the user has too many connections
+     */
+    public boolean acquireUserConnection(DocumentReference user)
+    {
+        if (!acquire(this.connectionsPerUser, user, this.maxConnectionsPerUser)) {
+            this.rejectedConnections.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Releases a connection acquired with {@link #acquireUserConnection(DocumentReference)}.
+     * 
+     * @param user the authenticated user
+     */
+    public void releaseUserConnection(DocumentReference user)
+    {
+        release(this.connectionsPerUser, user, this.maxConnectionsPerUser);
+    }
+
+    /**
+     * @return the number of open connections, if the total number of connections is limited
+     */
+    public int getConnectionCount()
+    {
+        return this.connections.get();
+    }
+
+    /**
+     * @return the number of connections that have been rejected because a limit was reached
+     */
+    public long getRejectedConnectionCount()
+    {
+        return this.rejectedConnections.get();
+    }
+
+    private static boolean acquire(AtomicInteger counter, int max)
+    {
+        if (max > 0) {
+            int count;
+            do {
+                count = counter.get();
+                if (count >= max) {
+                    return false;
+                }
+            } while (!counter.compareAndSet(count, count + 1));
+        }
+        return true;
+    }
+
+    private static void release(AtomicInteger counter, int max)
+    {
+        if (max > 0) {
+            counter.decrementAndGet();
+        }
+    }
+
+    private static <K> boolean acquire(ConcurrentMap<K, Integer> counters, K key, int max)
+    {
+        if (max <= 0) {
+            return true;
+        }
+
+        boolean[] acquired = new boolean[1];
+        counters.compute(key, (k, count) -> {
+            int current = count != null ? count : 0;
+            if (current < max) {
+                acquired[0] = true;
+                return current + 1;
+            }
+            return count;
+        });
+        return acquired[0];
+    }
+
+    private static <K> void release(ConcurrentMap<K, Integer> counters, K key, int max)
+    {
+        if (max > 0) {
+            // Remove the counter when it reaches 0 so that the map doesn't grow with each new client.
+            counters.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+}
@@ -24,10 +24,13 @@ import javax.inject.Singleton;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.container.Container;
+import org.xwiki.container.Request;
+import org.xwiki.container.Response;
 import org.xwiki.container.servlet.ServletRequest;
 import org.xwiki.container.servlet.ServletResponse;
 import org.xwiki.context.Execution;
 import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
@@ -53,36 +56,120 @@ public class WebSocketContextInitializer
     @Inject
     private Container container;
 
+    @Inject
+    private WebSocketAuthenticationCache authenticationCache;
+
     /**
-     * Initializes the XWiki context based on the provided WebSocket URL.
+     * Initializes the XWiki context based on the provided WebSocket URL. The context is pushed on the current thread
+     * and needs to be removed with {@link #cleanup()} afterwards.
      * 
      * @param request the
      */
     public void initialize(XWikiWebSocketRequest request)
     {
-        ExecutionContext context = this.execution.getContext();
-        if (context == null) {
-            context = new ExecutionContext();
-            this.execution.setContext(context);
-        }
+        ExecutionContext context = new ExecutionContext();
+        this.execution.pushContext(context);
+
+        XWikiServletResponseStub response = new XWikiServletResponseStub();
+        this.container.pushRequest(new ServletRequest(request));
+        this.container.pushResponse(new ServletResponse(response));
 
         XWikiContext xcontext = this.contextProvider.createStubContext();
         xcontext.setWikiId(request.getWebSocketURI().getWiki());
         xcontext.setRequest(request);
-        xcontext.setResponse(new XWikiServletResponseStub());
+        xcontext.setResponse(response);
         xcontext.declareInExecutionContext(context);
 
-        this.container.setRequest(new ServletRequest(request));
-        this.container.setResponse(new ServletResponse(xcontext.getResponse()));
+        DocumentReference userReference = authenticate(request, xcontext);
+        if (userReference != null) {
+            xcontext.setUserReference(userReference);
+        }
+    }
+
+    /**
+     * Removes the XWiki context pushed by {@link #initialize(XWikiWebSocketRequest)} from the current thread.
+     */
+    public void cleanup()
+    {
+        this.container.popResponse();
+        this.container.popRequest();
+        this.execution.popContext();
+    }
+
+    /**
+     * Captures the XWiki context initialized by {@link #initialize(XWikiWebSocketRequest)} (wiki, user, request), in
+     * order to execute the WebSocket handler callbacks in the same context, see {@link #run(Snapshot, Runnable)}.
+     * 
+     * @return a snapshot of the current XWiki context
+     */
+    public Snapshot snapshot()
+    {
+        XWikiContext xcontext =
+            (XWikiContext) this.execution.getContext().getProperty(XWikiContext.EXECUTIONCONTEXT_KEY);
+        return new Snapshot(xcontext.clone(), this.container.getRequest(), this.container.getResponse());
+    }
 
+    /**
+     * Runs the given task in a new execution context, cloned from the given snapshot. The execution context is removed
+     * from the current thread afterwards, so that it doesn't leak to the next task executed by the same thread (e.g. a
+     * callback of another WebSocket connection).
+     * 
+     * @param snapshot the XWiki context in which to run the task
+     * @param task the task to run
+     */
+    public void run(Snapshot snapshot, Runnable task)
+    {
+        ExecutionContext context = new ExecutionContext();
+        this.execution.pushContext(context);
+        this.container.pushRequest(snapshot.request);
+        this.container.pushResponse(snapshot.response);
         try {
-            XWikiUser xwikiUser = xcontext.getWiki().checkAuth(xcontext);
-            if (xwikiUser != null) {
-                xcontext.setUserReference(xwikiUser.getUserReference());
+            // Only the XWiki context needs to be cloned, the rest (the stub context creation, the request and response
+            // wrappers, the user authentication) is done once per connection.
+            snapshot.xcontext.clone().declareInExecutionContext(context);
+            task.run();
+        } finally {
+            this.container.popResponse();
+            this.container.popRequest();
+            this.execution.popContext();
+        }
+    }
+
+    /**
+     * The XWiki context of a WebSocket connection.
+     */
+    public static final class Snapshot
+    {
+        private final XWikiContext xcontext;
+
+        private final Request request;
+
+        private final Response response;
+
+        private Snapshot(XWikiContext xcontext, Request request, Response response)
+        {
+            this.xcontext = xcontext;
+            this.request = request;
+            this.response = response;
+        }
+    }
+
+    private DocumentReference authenticate(XWikiWebSocketRequest request, XWikiContext xcontext)
+    {
+        String cacheKey = this.authenticationCache.getKey(request);
+        DocumentReference userReference = this.authenticationCache.get(cacheKey);
+        if (userReference == null) {
+            try {
+                XWikiUser xwikiUser = xcontext.getWiki().checkAuth(xcontext);
+                if (xwikiUser != null) {
+                    userReference = xwikiUser.getUserReference();
+                    this.authenticationCache.set(cacheKey, userReference);
+                }
+            } catch (XWikiException e) {
+                throw new RuntimeException(
+                    "Failed to authenticate the user for WebSocket [" + request.getWebSocketURI() + "].", e);
             }
-        } catch (XWikiException e) {
-            throw new RuntimeException(
-                "Failed to authenticate the user for WebSocket [" + request.getWebSocketURI() + "].", e);
         }
+        return userReference;
     }
 }
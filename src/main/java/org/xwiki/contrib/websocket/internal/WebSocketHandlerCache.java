@@ -0,0 +1,189 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.descriptor.ComponentDescriptor;
+import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.contrib.websocket.WebSocketHandler;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Caches the {@link WebSocketHandler} components resolved during the WebSocket handshake, in order to avoid looking
+ * them up (and possibly instantiating them) for each connection. The handlers are cached per wiki: only the handlers
+ * registered for the whole wiki (or the whole farm) are cached, the handlers registered for a user are looked up each
+ * time. The handler descriptor is still resolved for each connection, which is cheap, so that a handler registered for
+ * the current user keeps precedence over the cached handler with the same hint. Only singleton handlers are cached,
+ * the others are looked up each time too, as their instantiation strategy requires. Unknown handlers are not cached so
+ * that requests for random paths (e.g. from scanners) can't fill the cache.
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+@Component(roles = WebSocketHandlerCache.class)
+@Singleton
+public class WebSocketHandlerCache implements Initializable, Disposable
+{
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    private static final int CACHE_SIZE = 1000;
+
+    /**
+     * A handler registered for the whole wiki (or farm), along with its descriptor.
+     */
+    private static final class CachedHandler
+    {
+        private final ComponentDescriptor<WebSocketHandler> descriptor;
+
+        /**
+         * {@code null} when the handler is not a singleton, so it needs to be looked up each time.
+         */
+        private final WebSocketHandler handler;
+
+        CachedHandler(ComponentDescriptor<WebSocketHandler> descriptor, WebSocketHandler handler)
+        {
+            this.descriptor = descriptor;
+            this.handler = handler;
+        }
+    }
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    @Named("context")
+    private Provider<ComponentManager> componentManagerProvider;
+
+    @Inject
+    @Named("wiki")
+    private Provider<ComponentManager> wikiComponentManagerProvider;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    private Cache<CachedHandler> cache;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.cache = this.cacheManager.createNewCache(new LRUCacheConfiguration("websocket.handlers", CACHE_SIZE));
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the WebSocket handler cache.", e);
+        }
+    }
+
+    /**
+     * Resolves the WebSocket handler registered with the given hint, for the current wiki and user.
+     * 
+     * @param hint the WebSocket handler hint
+     * @return the WebSocket handler, or {@code null} if there's no handler registered with the given hint
+     * @throws ComponentLookupException if the handler fails to be instantiated
+     */
+    public WebSocketHandler getHandler(String hint) throws ComponentLookupException
+    {
+        // The descriptor resolved by the context component manager takes into account the handlers registered for the
+        // current user, which have precedence over the handlers registered for the wiki.
+        ComponentManager componentManager = this.componentManagerProvider.get();
+        ComponentDescriptor<WebSocketHandler> descriptor =
+            componentManager.getComponentDescriptor(WebSocketHandler.class, hint);
+
+        // The wiki component manager depends on the current wiki.
+        String key = this.xcontextProvider.get().getWikiId() + KEY_SEPARATOR + hint;
+        CachedHandler cachedHandler = descriptor != null ? this.cache.get(key) : null;
+        // The descriptors are compared by identity since a handler registered for the user can have the same
+        // implementation as the one registered for the wiki.
+        if (cachedHandler != null && cachedHandler.descriptor == descriptor) {
+            if (cachedHandler.handler == null) {
+                return componentManager.getInstance(WebSocketHandler.class, hint);
+            }
+            this.hitCount.incrementAndGet();
+            return cachedHandler.handler;
+        }
+
+        this.missCount.incrementAndGet();
+        if (descriptor == null) {
+            return null;
+        }
+
+        ComponentManager wikiComponentManager = this.wikiComponentManagerProvider.get();
+        if (descriptor != wikiComponentManager.getComponentDescriptor(WebSocketHandler.class, hint)) {
+            // The handler is registered for the current user, which is not cached.
+            return componentManager.getInstance(WebSocketHandler.class, hint);
+        }
+
+        WebSocketHandler handler = wikiComponentManager.getInstance(WebSocketHandler.class, hint);
+        boolean singleton = descriptor.getInstantiationStrategy() == ComponentInstantiationStrategy.SINGLETON;
+        this.cache.set(key, new CachedHandler(descriptor, singleton ? handler : null));
+        return handler;
+    }
+
+    /**
+     * Removes all the cached handlers (e.g. after a handler has been registered or unregistered).
+     */
+    public void invalidate()
+    {
+        this.cache.removeAll();
+    }
+
+    /**
+     * @return the number of handler lookups that were resolved using the cache
+     */
+    public long getHitCount()
+    {
+        return this.hitCount.get();
+    }
+
+    /**
+     * @return the number of handler lookups that required a component manager lookup
+     */
+    public long getMissCount()
+    {
+        return this.missCount.get();
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.cache.dispose();
+    }
+}
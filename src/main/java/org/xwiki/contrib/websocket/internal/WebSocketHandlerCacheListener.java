@@ -0,0 +1,70 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.util.Arrays;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.component.event.ComponentDescriptorRemovedEvent;
+import org.xwiki.contrib.websocket.WebSocketHandler;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+/**
+ * Invalidates the {@link WebSocketHandlerCache} when a {@link WebSocketHandler} is registered or unregistered (e.g.
+ * when an extension is installed or uninstalled).
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+@Component
+@Named(WebSocketHandlerCacheListener.NAME)
+@Singleton
+public class WebSocketHandlerCacheListener extends AbstractEventListener
+{
+    /**
+     * The name used to register this event listener.
+     */
+    public static final String NAME = "org.xwiki.contrib.websocket.internal.WebSocketHandlerCacheListener";
+
+    @Inject
+    private Provider<WebSocketHandlerCache> handlerCacheProvider;
+
+    /**
+     * Default constructor.
+     */
+    public WebSocketHandlerCacheListener()
+    {
+        super(NAME, Arrays.asList(new ComponentDescriptorAddedEvent(WebSocketHandler.class),
+            new ComponentDescriptorRemovedEvent(WebSocketHandler.class)));
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        this.handlerCacheProvider.get().invalidate();
+    }
+}
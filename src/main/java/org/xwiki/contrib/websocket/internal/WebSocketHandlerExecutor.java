@@ -0,0 +1,174 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.contrib.websocket.WebSocketConfig;
+import org.xwiki.contrib.websocket.WebSocketHandler;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * Provides the executors used to run the {@link WebSocketHandler} callbacks, so that slow handlers don't block the
+ * network I/O threads that are shared by many connections.
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+@Component(roles = WebSocketHandlerExecutor.class)
+@Singleton
+public class WebSocketHandlerExecutor implements Initializable, Disposable
+{
+    /**
+     * Run the handler callbacks directly on the network I/O thread that received the message.
+     */
+    public static final String MODE_INLINE = "inline";
+
+    /**
+     * Run the handler callbacks on a dedicated bounded thread pool.
+     */
+    public static final String MODE_POOL = "pool";
+
+    /**
+     * Run the handler callbacks on virtual threads (one per task), when supported by the JVM.
+     */
+    public static final String MODE_VIRTUAL = "virtual";
+
+    private static final Executor INLINE = Runnable::run;
+
+    @Inject
+    private WebSocketConfig config;
+
+    @Inject
+    private Logger logger;
+
+    private ExecutorService pool;
+
+    private ExecutorService handshakePool;
+
+    @Override
+    public void initialize()
+    {
+        String threadNamePrefix = this.config.getThreadNamePrefix();
+        if (this.config.getHandshakeThreads() > 0) {
+            this.handshakePool = newThreadPool(this.config.getHandshakeThreads(), this.config.getHandshakeQueueSize(),
+                threadNamePrefix + "-handshake");
+        }
+
+        String mode = this.config.getHandlerExecutionMode();
+        if (MODE_POOL.equals(mode)) {
+            this.pool = newThreadPool(Math.max(1, this.config.getHandlerThreads()), this.config.getHandlerQueueSize(),
+                threadNamePrefix + "-handler");
+        } else if (MODE_VIRTUAL.equals(mode)) {
+            this.pool = newVirtualThreadPerTaskExecutor();
+            if (this.pool == null) {
+                this.logger.warn("Virtual threads are not supported by this JVM. Falling back to [{}].",
+                    MODE_INLINE);
+            }
+        } else if (!MODE_INLINE.equals(mode)) {
+            this.logger.warn("Unknown WebSocket handler execution mode [{}]. Falling back to [{}].", mode,
+                MODE_INLINE);
+        }
+    }
+
+    private ExecutorService newThreadPool(int threads, int queueSize, String name)
+    {
+        BlockingQueue<Runnable> queue = queueSize > 0 ? new ArrayBlockingQueue<>(queueSize) : new SynchronousQueue<>();
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, queue,
+            new DefaultThreadFactory(name, true));
+        threadPool.allowCoreThreadTimeOut(true);
+        return threadPool;
+    }
+
+    private ExecutorService newVirtualThreadPerTaskExecutor()
+    {
+        try {
+            // Virtual threads are available only starting with Java 21 so we can't call the method directly.
+            Method factoryMethod = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factoryMethod.invoke(null);
+        } catch (Exception e) {
+            this.logger.debug("Failed to create the virtual thread executor. Root cause is [{}].",
+                ExceptionUtils.getRootCauseMessage(e));
+            return null;
+        }
+    }
+
+    /**
+     * Creates the executor used to run the callbacks of a new WebSocket connection. The returned executor runs the
+     * callbacks in the order they are submitted and throws {@link java.util.concurrent.RejectedExecutionException}
+     * when the connection or the whole server has too many pending callbacks.
+     * 
+     * @return the executor to use for a new WebSocket connection
+     */
+    public OrderedExecutor newConnectionExecutor()
+    {
+        if (this.pool == null) {
+            // The callbacks run on the network I/O thread of the connection, which doesn't need a limit.
+            return new OrderedExecutor(INLINE, 0);
+        } else {
+            return new OrderedExecutor(this.pool, this.config.getMaxPendingMessages());
+        }
+    }
+
+    /**
+     * Executes a WebSocket handshake. The handshakes have their own bounded thread pool so that a burst of connections
+     * (e.g. all the clients reconnecting after a restart) doesn't delay the messages of the established connections.
+     * 
+     * @param handshake the handshake to execute
+     * @param connectionExecutor the executor of the connection, used when handshakes don't have their own pool
+     * @throws java.util.concurrent.RejectedExecutionException if too many handshakes are waiting to be executed
+     */
+    public void executeHandshake(Runnable handshake, Executor connectionExecutor)
+    {
+        if (this.handshakePool != null) {
+            this.handshakePool.execute(handshake);
+        } else {
+            connectionExecutor.execute(handshake);
+        }
+    }
+
+    @Override
+    public void dispose()
+    {
+        if (this.handshakePool != null) {
+            this.handshakePool.shutdown();
+        }
+        if (this.pool != null) {
+            this.pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.xwiki.contrib.websocket.WebSocketHandlerMetricsMXBean;
+
+/**
+ * Collects the metrics of a {@link org.xwiki.contrib.websocket.WebSocketHandler} on a given wiki. The counters are
+ * {@link LongAdder}s so that the connections updating them concurrently don't contend with each other.
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+public class WebSocketHandlerMetrics implements WebSocketHandlerMetricsMXBean
+{
+    private final String wiki;
+
+    private final String handler;
+
+    private final Set<NettyWebSocket> webSockets = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder connections = new LongAdder();
+
+    private final LongAdder errors = new LongAdder();
+
+    private final LongAdder inboundMessages = new LongAdder();
+
+    private final LongAdder inboundBytes = new LongAdder();
+
+    private final LongAdder outboundMessages = new LongAdder();
+
+    private final LongAdder outboundBytes = new LongAdder();
+
+    private final LatencyHistogram handshakeTime = new LatencyHistogram();
+
+    private final LatencyHistogram callbackTime = new LatencyHistogram();
+
+    /**
+     * Creates the metrics of a handler.
+     * 
+     * @param wiki the wiki on which the handler is used
+     * @param handler the hint of the handler component
+     */
+    public WebSocketHandlerMetrics(String wiki, String handler)
+    {
+        this.wiki = wiki;
+        this.handler = handler;
+    }
+
+    @Override
+    public String getWiki()
+    {
+        return this.wiki;
+    }
+
+    @Override
+    public String getHandler()
+    {
+        return this.handler;
+    }
+
+    @Override
+    public long getActiveConnections()
+    {
+        return this.webSockets.size();
+    }
+
+    @Override
+    public long getConnections()
+    {
+        return this.connections.sum();
+    }
+
+    @Override
+    public long getErrors()
+    {
+        return this.errors.sum();
+    }
+
+    @Override
+    public long getInboundMessages()
+    {
+        return this.inboundMessages.sum();
+    }
+
+    @Override
+    public long getInboundBytes()
+    {
+        return this.inboundBytes.sum();
+    }
+
+    @Override
+    public long getOutboundMessages()
+    {
+        return this.outboundMessages.sum();
+    }
+
+    @Override
+    public long getOutboundBytes()
+    {
+        return this.outboundBytes.sum();
+    }
+
+    @Override
+    public long getQueuedOutboundBytes()
+    {
+        long queuedBytes = 0;
+        for (NettyWebSocket webSocket : this.webSockets) {
+            queuedBytes += webSocket.getPendingBytes();
+        }
+        return queuedBytes;
+    }
+
+    @Override
+    public LatencyHistogram getHandshakeTime()
+    {
+        return this.handshakeTime;
+    }
+
+    @Override
+    public LatencyHistogram getCallbackTime()
+    {
+        return this.callbackTime;
+    }
+
+    void connected(NettyWebSocket webSocket, long handshakeNanos)
+    {
+        this.webSockets.add(webSocket);
+        this.connections.increment();
+        this.handshakeTime.record(handshakeNanos);
+    }
+
+    void disconnected(NettyWebSocket webSocket)
+    {
+        this.webSockets.remove(webSocket);
+    }
+
+    void received(int bytes, boolean last)
+    {
+        this.inboundBytes.add(bytes);
+        if (last) {
+            this.inboundMessages.increment();
+        }
+    }
+
+    void sent(int bytes)
+    {
+        this.outboundBytes.add(bytes);
+        this.outboundMessages.increment();
+    }
+
+    void error()
+    {
+        this.errors.increment();
+    }
+
+    void callback(long nanos)
+    {
+        this.callbackTime.record(nanos);
+    }
+}
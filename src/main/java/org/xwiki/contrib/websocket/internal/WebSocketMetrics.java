@@ -0,0 +1,194 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.contrib.websocket.WebSocketServerMetricsMXBean;
+
+/**
+ * Collects the metrics of the WebSocket server and registers them as JMX MBeans, under the
+ * {@code org.xwiki.contrib.websocket} domain.
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+@Component(roles = WebSocketMetrics.class)
+@Singleton
+public class WebSocketMetrics implements WebSocketServerMetricsMXBean, Initializable, Disposable
+{
+    private static final String DOMAIN = "org.xwiki.contrib.websocket";
+
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Provider<NettyWebSocketService> webSocketServiceProvider;
+
+    @Inject
+    private WebSocketConnectionLimiter connectionLimiter;
+
+    @Inject
+    private WebSocketAuthenticationCache authenticationCache;
+
+    @Inject
+    private WebSocketHandlerCache handlerCache;
+
+    private final ConcurrentMap<String, WebSocketHandlerMetrics> handlerMetrics = new ConcurrentHashMap<>();
+
+    private final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+
+    @Override
+    public void initialize()
+    {
+        register(this, "type=Server");
+    }
+
+    /**
+     * The metrics are kept until the server stops so the caller must make sure the wiki exists and the handler is
+     * registered, otherwise any request URL would create new metrics.
+     * 
+     * @param wiki the wiki on which the handler is used
+     * @param handler the hint of the handler component
+     * @return the metrics of the specified handler on the specified wiki
+     */
+    public WebSocketHandlerMetrics getHandlerMetrics(String wiki, String handler)
+    {
+        return this.handlerMetrics.computeIfAbsent(wiki + KEY_SEPARATOR + handler, key -> {
+            WebSocketHandlerMetrics metrics = new WebSocketHandlerMetrics(wiki, handler);
+            register(metrics, getHandlerProperties(wiki, handler));
+            return metrics;
+        });
+    }
+
+    /**
+     * @return the metrics of all the handlers that have been used
+     */
+    public Collection<WebSocketHandlerMetrics> getHandlerMetrics()
+    {
+        return Collections.unmodifiableCollection(this.handlerMetrics.values());
+    }
+
+    @Override
+    public long getActiveConnections()
+    {
+        return this.handlerMetrics.values().stream().mapToLong(WebSocketHandlerMetrics::getActiveConnections).sum();
+    }
+
+    @Override
+    public long getQueuedOutboundBytes()
+    {
+        return this.handlerMetrics.values().stream().mapToLong(WebSocketHandlerMetrics::getQueuedOutboundBytes).sum();
+    }
+
+    @Override
+    public long getRejectedConnections()
+    {
+        return this.connectionLimiter.getRejectedConnectionCount();
+    }
+
+    @Override
+    public long getReapedConnections()
+    {
+        return this.webSocketServiceProvider.get().getReapedConnectionCount();
+    }
+
+    @Override
+    public long getAuthenticationCacheHits()
+    {
+        return this.authenticationCache.getHitCount();
+    }
+
+    @Override
+    public long getAuthenticationCacheMisses()
+    {
+        return this.authenticationCache.getMissCount();
+    }
+
+    @Override
+    public long getHandlerCacheHits()
+    {
+        return this.handlerCache.getHitCount();
+    }
+
+    @Override
+    public long getHandlerCacheMisses()
+    {
+        return this.handlerCache.getMissCount();
+    }
+
+    private String getHandlerProperties(String wiki, String handler)
+    {
+        return "type=Handler,wiki=" + ObjectName.quote(wiki) + ",handler=" + ObjectName.quote(handler);
+    }
+
+    private void register(Object mbean, String properties)
+    {
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ':' + properties);
+            if (!this.mbeanServer.isRegistered(name)) {
+                this.mbeanServer.registerMBean(mbean, name);
+            }
+        } catch (JMException e) {
+            this.logger.warn("Failed to register the WebSocket metrics [{}] in JMX. Root cause is [{}].", properties,
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
+    private void unregister(String properties)
+    {
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ':' + properties);
+            if (this.mbeanServer.isRegistered(name)) {
+                this.mbeanServer.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            this.logger.debug("Failed to unregister the WebSocket metrics [{}] from JMX. Root cause is [{}].",
+                properties, ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
+    @Override
+    public void dispose()
+    {
+        unregister("type=Server");
+        for (WebSocketHandlerMetrics metrics : this.handlerMetrics.values()) {
+            unregister(getHandlerProperties(metrics.getWiki(), metrics.getHandler()));
+        }
+    }
+}
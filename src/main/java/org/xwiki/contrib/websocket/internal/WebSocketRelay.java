@@ -0,0 +1,51 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.util.function.Consumer;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.contrib.websocket.WebSocketRoomManager;
+
+/**
+ * Forwards the messages broadcast to {@link WebSocketRoomManager} rooms to the other nodes of the cluster, so that
+ * they reach the room members connected to other nodes. The implementation to use is selected with the
+ * {@code websocket.cluster.relay} configuration property, which holds the component hint.
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+@Role
+public interface WebSocketRelay
+{
+    /**
+     * Starts relaying messages.
+     * 
+     * @param receiver the code that delivers locally the messages received from the other nodes
+     */
+    void start(Consumer<WebSocketRelayMessage> receiver);
+
+    /**
+     * Sends a message to the other nodes of the cluster.
+     * 
+     * @param message the message to send
+     */
+    void publish(WebSocketRelayMessage message);
+}
@@ -0,0 +1,128 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A room broadcast message exchanged between the nodes of a cluster.
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+public class WebSocketRelayMessage
+{
+    private final String id;
+
+    private final String room;
+
+    private final boolean text;
+
+    private final byte[] payload;
+
+    /**
+     * Creates a new message.
+     * 
+     * @param id the message identifier, used to detect duplicates
+     * @param room the room the message is broadcast to
+     * @param text whether it's a text (UTF-8 encoded) or a binary message
+     * @param payload the message content
+     */
+    public WebSocketRelayMessage(String id, String room, boolean text, byte[] payload)
+    {
+        this.id = id;
+        this.room = room;
+        this.text = text;
+        this.payload = payload;
+    }
+
+    /**
+     * @return the message identifier, used to detect duplicates
+     */
+    public String getId()
+    {
+        return this.id;
+    }
+
+    /**
+     * @return the room the message is broadcast to
+     */
+    public String getRoom()
+    {
+        return this.room;
+    }
+
+    /**
+     * @return whether it's a text (UTF-8 encoded) or a binary message
+     */
+    public boolean isText()
+    {
+        return this.text;
+    }
+
+    /**
+     * @return the message content
+     */
+    public byte[] getPayload()
+    {
+        return this.payload;
+    }
+
+    /**
+     * Serializes this message.
+     * 
+     * @param output where to write the message
+     * @throws IOException if writing fails
+     */
+    public void writeTo(DataOutput output) throws IOException
+    {
+        output.writeUTF(this.id);
+        output.writeUTF(this.room);
+        output.writeBoolean(this.text);
+        output.writeInt(this.payload.length);
+        output.write(this.payload);
+    }
+
+    /**
+     * Deserializes a message.
+     * 
+     * @param input where to read the message from
+     * @param maxPayloadSize the maximum size of the message content
+     * @return the read message
+     * @throws IOException if reading fails or if the message content is too big
+     */
+    public static WebSocketRelayMessage readFrom(DataInput input, int maxPayloadSize) throws IOException
+    {
+        String id = input.readUTF();
+        String room = input.readUTF();
+        boolean text = input.readBoolean();
+        // Don't trust the size sent by the other node before allocating the content.
+        int payloadSize = input.readInt();
+        if (payloadSize < 0 || payloadSize > maxPayloadSize) {
+            throw new IOException(String.format("Invalid WebSocket relay message size [%s], expecting at most [%s].",
+                payloadSize, maxPayloadSize));
+        }
+        byte[] payload = new byte[payloadSize];
+        input.readFully(payload);
+        return new WebSocketRelayMessage(id, room, text, payload);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+/**
+ * Coalesces the flushes of a channel in order to reduce the number of system calls when many messages are sent in a
+ * short period of time (e.g. a burst of updates). The written messages are flushed at the end of the current read
+ * loop or event loop tick, or as soon as the configured number of messages or bytes is pending. The write order is
+ * preserved because this handler never reorders writes, it only delays the flushes.
+ * 
+ * @version $Id$
+ * @since 1.10
+ */
+public class WriteBatchingHandler extends ChannelDuplexHandler
+{
+    private final int maxMessages;
+
+    private final long maxBytes;
+
+    private final Runnable flushTask = this::flushScheduled;
+
+    private ChannelHandlerContext context;
+
+    private int pendingMessages;
+
+    private long pendingBytes;
+
+    private boolean flushPending;
+
+    private boolean flushScheduled;
+
+    private boolean readInProgress;
+
+    /**
+     * Creates a new handler.
+     * 
+     * @param maxMessages the number of pending messages that triggers an immediate flush
+     * @param maxBytes the number of pending bytes that triggers an immediate flush
+     */
+    public WriteBatchingHandler(int maxMessages, long maxBytes)
+    {
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext context) throws Exception
+    {
+        this.context = context;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext context, Object message, ChannelPromise promise) throws Exception
+    {
+        this.pendingMessages++;
+        if (message instanceof ByteBuf) {
+            this.pendingBytes += ((ByteBuf) message).readableBytes();
+        } else if (message instanceof ByteBufHolder) {
+            this.pendingBytes += ((ByteBufHolder) message).content().readableBytes();
+        }
+        context.write(message, promise);
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext context) throws Exception
+    {
+        this.flushPending = true;
+        if (this.pendingMessages >= this.maxMessages || this.pendingBytes >= this.maxBytes) {
+            flushNow(context);
+        } else if (!this.readInProgress && !this.flushScheduled) {
+            // Flush after the tasks already submitted to the event loop (e.g. other writes) have been executed.
+            this.flushScheduled = true;
+            context.channel().eventLoop().execute(this.flushTask);
+        }
+        // Otherwise the flush is done at the end of the read loop or by the scheduled task.
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext context, Object message) throws Exception
+    {
+        this.readInProgress = true;
+        context.fireChannelRead(message);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext context) throws Exception
+    {
+        this.readInProgress = false;
+        flushIfPending(context);
+        context.fireChannelReadComplete();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext context) throws Exception
+    {
+        if (!context.channel().isWritable()) {
+            // Flush so that the pending data can be written to the socket as soon as possible.
+            flushIfPending(context);
+        }
+        context.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext context, Throwable cause) throws Exception
+    {
+        flushIfPending(context);
+        context.fireExceptionCaught(cause);
+    }
+
+    @Override
+    public void disconnect(ChannelHandlerContext context, ChannelPromise promise) throws Exception
+    {
+        flushIfPending(context);
+        context.disconnect(promise);
+    }
+
+    @Override
+    public void close(ChannelHandlerContext context, ChannelPromise promise) throws Exception
+    {
+        flushIfPending(context);
+        context.close(promise);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext context) throws Exception
+    {
+        flushIfPending(context);
+    }
+
+    private void flushScheduled()
+    {
+        this.flushScheduled = false;
+        flushIfPending(this.context);
+    }
+
+    private void flushIfPending(ChannelHandlerContext context)
+    {
+        if (this.flushPending) {
+            flushNow(context);
+        }
+    }
+
+    private void flushNow(ChannelHandlerContext context)
+    {
+        this.flushPending = false;
+        this.pendingMessages = 0;
+        this.pendingBytes = 0;
+        context.flush();
+    }
+}
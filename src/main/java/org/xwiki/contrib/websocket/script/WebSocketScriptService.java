@@ -19,17 +19,26 @@
  */
 package org.xwiki.contrib.websocket.script;
 
+import java.util.Collection;
+import java.util.Collections;
+
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.contrib.websocket.WebSocketConfig;
 import org.xwiki.contrib.websocket.WebSocketHandler;
+import org.xwiki.contrib.websocket.WebSocketHandlerMetricsMXBean;
+import org.xwiki.contrib.websocket.WebSocketServerMetricsMXBean;
+import org.xwiki.contrib.websocket.internal.WebSocketMetrics;
 import org.xwiki.contrib.websocket.internal.WebSocketURI;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.ModelContext;
 import org.xwiki.script.service.ScriptService;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
 
 /**
  * Exposes WebSocket related APIs to server-side scripts.
@@ -47,6 +56,12 @@ public class WebSocketScriptService implements ScriptService
     @Inject
     private ModelContext modelContext;
 
+    @Inject
+    private Provider<WebSocketMetrics> metricsProvider;
+
+    @Inject
+    private ContextualAuthorizationManager authorization;
+
     /**
      * Get the URL for accessing the WebSocket. The exact form of this URL results from the WebSocket configuration, the
      * current wiki and the handler component hint.
@@ -60,4 +75,28 @@ public class WebSocketScriptService implements ScriptService
         String wiki = this.modelContext.getCurrentEntityReference().extractReference(EntityType.WIKI).getName();
         return new WebSocketURI(externalPath, wiki, handler).toString();
     }
+
+    /**
+     * Requires programming rights because the metrics cover all the wikis.
+     * 
+     * @return the metrics of the WebSocket server, or {@code null} if the current user is not allowed to see them
+     * @since 1.10
+     */
+    public WebSocketServerMetricsMXBean getMetrics()
+    {
+        return this.authorization.hasAccess(Right.PROGRAM) ? this.metricsProvider.get() : null;
+    }
+
+    /**
+     * Requires programming rights because the metrics cover all the wikis.
+     * 
+     * @return the metrics of each WebSocket handler, per wiki, or an empty collection if the current user is not
+     *         allowed to see them
+     * @since 1.10
+     */
+    public Collection<? extends WebSocketHandlerMetricsMXBean> getHandlerMetrics()
+    {
+        return this.authorization.hasAccess(Right.PROGRAM) ? this.metricsProvider.get().getHandlerMetrics()
+            : Collections.emptyList();
+    }
 }
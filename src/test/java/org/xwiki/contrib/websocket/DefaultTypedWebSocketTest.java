@@ -0,0 +1,100 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.Answers;
+import org.mockito.ArgumentCaptor;
+import org.xwiki.contrib.websocket.codec.JsonWebSocketCodec;
+import org.xwiki.contrib.websocket.codec.RawWebSocketCodec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for {@link DefaultTypedWebSocket}, i.e. the default implementation of
+ * {@link WebSocket#as(WebSocketCodec)}.
+ * 
+ * @version $Id$
+ */
+class DefaultTypedWebSocketTest
+{
+    @SuppressWarnings("rawtypes")
+    private final JsonWebSocketCodec<Map> codec = new JsonWebSocketCodec<>(Map.class);
+
+    /**
+     * Implements only the abstract methods of the interface.
+     */
+    private final WebSocket webSocket = mock(WebSocket.class, Answers.CALLS_REAL_METHODS);
+
+    @Test
+    void send()
+    {
+        this.webSocket.as(this.codec).send(Collections.singletonMap("count", 2));
+
+        verify(this.webSocket).send("{\"count\":2}");
+    }
+
+    @Test
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    void onMessage()
+    {
+        List<Map> messages = new ArrayList<>();
+        this.webSocket.as(this.codec).onMessage(messages::add);
+
+        ArgumentCaptor<Consumer<String>> textCaptor = ArgumentCaptor.forClass(Consumer.class);
+        verify(this.webSocket).onMessage(textCaptor.capture());
+        textCaptor.getValue().accept("{\"count\":2}");
+
+        // The binary messages can't be decoded by a text codec.
+        verify(this.webSocket, never()).onBinaryMessage(any());
+
+        assertEquals(1, messages.size());
+        assertEquals(2, messages.get(0).get("count"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void onBinaryMessage()
+    {
+        List<ByteBuffer> messages = new ArrayList<>();
+        this.webSocket.as(new RawWebSocketCodec()).onMessage(messages::add);
+
+        ArgumentCaptor<Consumer<ByteBuffer>> binaryCaptor = ArgumentCaptor.forClass(Consumer.class);
+        verify(this.webSocket).onBinaryMessage(binaryCaptor.capture());
+        ByteBuffer message = ByteBuffer.wrap(new byte[] {1, 2});
+        binaryCaptor.getValue().accept(message);
+
+        // The text messages can't be decoded by a binary codec.
+        verify(this.webSocket, never()).onMessage(any());
+
+        assertEquals(Collections.singletonList(message), messages);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link JsonWebSocketCodec}.
+ * 
+ * @version $Id$
+ */
+class JsonWebSocketCodecTest
+{
+    @SuppressWarnings("rawtypes")
+    private final JsonWebSocketCodec<Map> codec = new JsonWebSocketCodec<>(Map.class);
+
+    @Test
+    void decode() throws Exception
+    {
+        byte[] json = "..{\"count\":2}".getBytes(StandardCharsets.UTF_8);
+
+        // Heap buffer with an offset.
+        ByteBuffer heapBuffer = ByteBuffer.wrap(json);
+        heapBuffer.position(2);
+        assertEquals(2, this.codec.decode(heapBuffer).get("count"));
+
+        // Direct buffer.
+        ByteBuffer directBuffer = ByteBuffer.allocateDirect(json.length - 2);
+        directBuffer.put(json, 2, json.length - 2).flip();
+        assertEquals(2, this.codec.decode(directBuffer).get("count"));
+    }
+
+    @Test
+    void encode() throws Exception
+    {
+        assertTrue(this.codec.isText());
+        ByteBuffer message = this.codec.encode(Collections.singletonMap("count", 2));
+        assertEquals("{\"count\":2}", StandardCharsets.UTF_8.decode(message).toString());
+    }
+}
@@ -20,6 +20,9 @@
 package org.xwiki.contrib.websocket.internal;
 
 import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import javax.inject.Provider;
 
@@ -36,6 +39,11 @@ import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.web.XWikiURLFactory;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.when;
 
 /**
@@ -71,6 +79,8 @@ class DefaultWebSocketConfigTest
         when(this.xcontext.getWiki()).thenReturn(this.xwiki);
         when(this.xcontext.getURLFactory()).thenReturn(this.urlFactory);
 
+        // Use the default value of the properties that are not configured.
+        when(this.cs.getProperty(anyString(), (Object) any())).thenAnswer(invocation -> invocation.getArgument(1));
         when(this.cs.getProperty("websocket.ssl.enable", false)).thenReturn(false);
         when(this.cs.getProperty("websocket.port", 8093)).thenReturn(8093);
     }
@@ -95,4 +105,128 @@ class DefaultWebSocketConfigTest
 
         assertEquals("wss://www.xwik.com:8094/", this.config.getExternalPath());
     }
+
+    @Test
+    void handler()
+    {
+        assertEquals("pool", this.config.getHandlerExecutionMode());
+        assertEquals(10000, this.config.getHandlerQueueSize());
+        assertEquals(1000, this.config.getMaxPendingMessages());
+        assertTrue(this.config.isHandlerContextManaged());
+
+        when(this.cs.getProperty("websocket.handler.execution", "pool")).thenReturn("inline");
+        assertEquals("inline", this.config.getHandlerExecutionMode());
+    }
+
+    @Test
+    void transport()
+    {
+        assertEquals("auto", this.config.getTransport());
+        assertFalse(this.config.isReusePortEnabled());
+        assertEquals(1, this.config.getBossThreads());
+        assertEquals(0, this.config.getWorkerThreads());
+        assertEquals("websocket", this.config.getThreadNamePrefix());
+        assertNull(this.config.getThreadAffinity());
+
+        when(this.cs.getProperty("websocket.transport", "auto")).thenReturn("epoll");
+        assertEquals("epoll", this.config.getTransport());
+    }
+
+    @Test
+    void compression()
+    {
+        assertFalse(this.config.isCompressionEnabled());
+        assertEquals(6, this.config.getCompressionLevel());
+        assertEquals(15, this.config.getCompressionWindowBits());
+        assertTrue(this.config.isCompressionContextTakeover());
+        assertEquals(256, this.config.getCompressionThreshold());
+
+        when(this.cs.getProperty("websocket.compression.level", 6)).thenReturn(9);
+        assertEquals(9, this.config.getCompressionLevel());
+    }
+
+    @Test
+    void writeBatching()
+    {
+        assertTrue(this.config.isWriteBatchingEnabled());
+        assertEquals(256, this.config.getWriteBatchingMaxMessages());
+        assertEquals(65536, this.config.getWriteBatchingMaxBytes());
+
+        when(this.cs.getProperty("websocket.writeBatching.enable", true)).thenReturn(false);
+        assertFalse(this.config.isWriteBatchingEnabled());
+    }
+
+    @Test
+    void backpressure()
+    {
+        assertEquals(65536, this.config.getWriteBufferHighWaterMark());
+        assertEquals(32768, this.config.getWriteBufferLowWaterMark());
+        assertEquals(32L * 1024 * 1024, this.config.getMaxPendingBytes());
+        assertEquals("close", this.config.getBackpressurePolicy());
+        assertEquals(30000, this.config.getBackpressureBlockTimeout());
+
+        when(this.cs.getProperty("websocket.backpressure.policy", "close")).thenReturn("drop");
+        assertEquals("drop", this.config.getBackpressurePolicy());
+    }
+
+    @Test
+    void cluster()
+    {
+        assertNull(this.config.getClusterRelay());
+        assertEquals(8094, this.config.getClusterPort());
+        assertEquals(Collections.emptyList(), this.config.getClusterPeers());
+        assertEquals("127.0.0.1", this.config.getClusterBindTo());
+        assertNull(this.config.getClusterSecret());
+
+        List<String> peers = Arrays.asList("node1:8094", "node2:8094");
+        when(this.cs.getProperty("websocket.cluster.peers", List.class)).thenReturn(peers);
+        assertEquals(peers, this.config.getClusterPeers());
+    }
+
+    @Test
+    void authenticationCache()
+    {
+        assertTrue(this.config.isAuthenticationCacheEnabled());
+        assertEquals(10000, this.config.getAuthenticationCacheSize());
+        assertEquals(300, this.config.getAuthenticationCacheTimeToLive());
+        assertEquals(Arrays.asList("username", "password", "validation", "rememberme"),
+            this.config.getAuthenticationCookies());
+
+        when(this.cs.getProperty("websocket.authCache.timeToLive", 300)).thenReturn(60);
+        assertEquals(60, this.config.getAuthenticationCacheTimeToLive());
+    }
+
+    @Test
+    void handshake()
+    {
+        assertEquals(1000, this.config.getHandshakeQueueSize());
+        assertEquals(5, this.config.getHandshakeRetryAfter());
+
+        when(this.cs.getProperty("websocket.handshake.retryAfter", 5)).thenReturn(10);
+        assertEquals(10, this.config.getHandshakeRetryAfter());
+    }
+
+    @Test
+    void idle()
+    {
+        assertEquals(60, this.config.getIdleReadTimeout());
+        assertEquals(0, this.config.getIdleWriteTimeout());
+        assertEquals(30, this.config.getPongTimeout());
+
+        when(this.cs.getProperty("websocket.idle.readTimeout", 60)).thenReturn(0);
+        assertEquals(0, this.config.getIdleReadTimeout());
+    }
+
+    @Test
+    void limits()
+    {
+        assertEquals(0, this.config.getMaxConnections());
+        assertEquals(0, this.config.getMaxConnectionsPerAddress());
+        assertEquals(0, this.config.getMaxConnectionsPerUser());
+        assertEquals(0, this.config.getMessageRateLimit());
+        assertEquals(0, this.config.getByteRateLimit());
+
+        when(this.cs.getProperty("websocket.limits.maxConnectionsPerUser", 0)).thenReturn(5);
+        assertEquals(5, this.config.getMaxConnectionsPerUser());
+    }
 }
@@ -0,0 +1,174 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.xwiki.contrib.websocket.WebSocket;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+
+import io.netty.buffer.ByteBuf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link DefaultWebSocketRoomManager}.
+ * 
+ * @version $Id$
+ */
+@ComponentTest
+class DefaultWebSocketRoomManagerTest
+{
+    @InjectMockComponents
+    private DefaultWebSocketRoomManager roomManager;
+
+    @Test
+    void broadcast()
+    {
+        WebSocket alice = mock(WebSocket.class);
+        WebSocket bob = mock(WebSocket.class);
+        this.roomManager.join("room", alice);
+        this.roomManager.join("room", bob);
+
+        assertEquals(1, this.roomManager.broadcast("room", "hello", alice));
+        verify(alice, never()).send("hello");
+        verify(bob).send("hello");
+
+        this.roomManager.leave("room", bob);
+        assertEquals(1, this.roomManager.broadcast("room", "bye"));
+        verify(alice).send("bye");
+        verify(bob, never()).send("bye");
+    }
+
+    @Test
+    void leaveOnDisconnect()
+    {
+        WebSocket webSocket = mock(WebSocket.class);
+        this.roomManager.join("first", webSocket);
+        this.roomManager.join("second", webSocket);
+
+        // The disconnect callback is registered only once.
+        ArgumentCaptor<Runnable> disconnectCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(webSocket).onDisconnect(disconnectCaptor.capture());
+        disconnectCaptor.getValue().run();
+
+        assertTrue(this.roomManager.getMembers("first").isEmpty());
+        assertTrue(this.roomManager.getMembers("second").isEmpty());
+        assertEquals(0, this.roomManager.broadcast("first", "hello"));
+    }
+
+    @Test
+    void disconnectWhileJoining()
+    {
+        // The WebSocket disconnects as soon as the disconnect callback is registered, i.e. before being added to the
+        // room.
+        WebSocket webSocket = mock(WebSocket.class);
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(0).run();
+            return null;
+        }).when(webSocket).onDisconnect(any());
+
+        this.roomManager.join("room", webSocket);
+
+        assertTrue(this.roomManager.getMembers("room").isEmpty());
+    }
+
+    @Test
+    void disconnectBeforeRegisteringCallback()
+    {
+        // The WebSocket is open when the join starts but its disconnect callbacks are called before ours is
+        // registered, so ours is never called.
+        NettyWebSocket webSocket = mock(NettyWebSocket.class);
+        when(webSocket.isOpen()).thenReturn(true, false);
+
+        this.roomManager.join("room", webSocket);
+
+        assertTrue(this.roomManager.getMembers("room").isEmpty());
+        verify(webSocket, never()).send(any(ByteBuf.class), anyBoolean());
+        assertEquals(0, this.roomManager.broadcast("room", "hello"));
+    }
+
+    @Test
+    void joinClosedWebSocket()
+    {
+        NettyWebSocket webSocket = mock(NettyWebSocket.class);
+
+        this.roomManager.join("room", webSocket);
+
+        assertTrue(this.roomManager.getMembers("room").isEmpty());
+        verify(webSocket, never()).onDisconnect(any());
+    }
+
+    @Test
+    void concurrentJoinAndDisconnect() throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 1000; i++) {
+                WebSocket webSocket = mock(WebSocket.class);
+                this.roomManager.join("first", webSocket);
+                ArgumentCaptor<Runnable> disconnectCaptor = ArgumentCaptor.forClass(Runnable.class);
+                verify(webSocket).onDisconnect(disconnectCaptor.capture());
+
+                CountDownLatch start = new CountDownLatch(1);
+                Future<?> join = executor.submit(() -> {
+                    start.await();
+                    this.roomManager.join("second", webSocket);
+                    return null;
+                });
+                Future<?> disconnect = executor.submit(() -> {
+                    start.await();
+                    disconnectCaptor.getValue().run();
+                    return null;
+                });
+                start.countDown();
+                join.get();
+                disconnect.get();
+
+                // Either the join happened before the disconnect and the WebSocket left the room, or it happened
+                // after and the WebSocket is a member that will be removed by the callback registered again.
+                if (!this.roomManager.getMembers("second").isEmpty()) {
+                    ArgumentCaptor<Runnable> newDisconnectCaptor = ArgumentCaptor.forClass(Runnable.class);
+                    verify(webSocket, times(2)).onDisconnect(newDisconnectCaptor.capture());
+                    newDisconnectCaptor.getValue().run();
+                }
+                assertTrue(this.roomManager.getMembers("first").isEmpty());
+                assertTrue(this.roomManager.getMembers("second").isEmpty());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.ReferenceCountUtil;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link IdleConnectionHandler}.
+ * 
+ * @version $Id$
+ */
+class IdleConnectionHandlerTest
+{
+    private final AtomicLong reapedConnections = new AtomicLong();
+
+    @Test
+    void closeConnectionWithoutRequest()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(new IdleConnectionHandler(0, this.reapedConnections));
+        channel.pipeline().fireUserEventTriggered(IdleStateEvent.FIRST_READER_IDLE_STATE_EVENT);
+
+        assertFalse(channel.isOpen());
+        assertEquals(1, this.reapedConnections.get());
+    }
+
+    @Test
+    void closeConnectionWithoutPong()
+    {
+        EmbeddedChannel channel = newUpgradedChannel();
+
+        channel.pipeline().fireUserEventTriggered(IdleStateEvent.FIRST_READER_IDLE_STATE_EVENT);
+        Object ping = channel.readOutbound();
+        assertTrue(ping instanceof PingWebSocketFrame);
+        ReferenceCountUtil.release(ping);
+
+        channel.runScheduledPendingTasks();
+        CloseWebSocketFrame close = channel.readOutbound();
+        assertEquals(1001, close.statusCode());
+        close.release();
+        assertFalse(channel.isOpen());
+        assertEquals(1, this.reapedConnections.get());
+    }
+
+    @Test
+    void keepConnectionWithPong()
+    {
+        EmbeddedChannel channel = newUpgradedChannel();
+
+        channel.pipeline().fireUserEventTriggered(IdleStateEvent.FIRST_READER_IDLE_STATE_EVENT);
+        ReferenceCountUtil.release(channel.readOutbound());
+        channel.writeInbound(new PongWebSocketFrame());
+        ReferenceCountUtil.release(channel.readInbound());
+
+        channel.runScheduledPendingTasks();
+        assertNull(channel.readOutbound());
+        assertTrue(channel.isOpen());
+        assertEquals(0, this.reapedConnections.get());
+
+        channel.finishAndReleaseAll();
+    }
+
+    private EmbeddedChannel newUpgradedChannel()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(new IdleConnectionHandler(0, this.reapedConnections));
+        channel.writeInbound("request");
+        channel.readInbound();
+        channel.writeOutbound(
+            new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.SWITCHING_PROTOCOLS));
+        ReferenceCountUtil.release(channel.readOutbound());
+        return channel;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link ListenerRegistry}.
+ * 
+ * @version $Id$
+ */
+class ListenerRegistryTest
+{
+    @Test
+    void addAndRemove()
+    {
+        ListenerRegistry<Runnable> registry = new ListenerRegistry<>(new Runnable[0]);
+        assertTrue(registry.isEmpty());
+
+        Runnable first = () -> {
+        };
+        Runnable second = () -> {
+        };
+        registry.add(first);
+        registry.add(second);
+        registry.add(first);
+        assertArrayEquals(new Runnable[] {first, second, first}, registry.get());
+
+        Runnable[] snapshot = registry.get();
+        assertTrue(registry.remove(first));
+        assertArrayEquals(new Runnable[] {second, first}, registry.get());
+        // Previous snapshots are not modified.
+        assertArrayEquals(new Runnable[] {first, second, first}, snapshot);
+
+        assertTrue(registry.remove(first));
+        assertTrue(registry.remove(second));
+        assertFalse(registry.remove(second));
+        assertTrue(registry.isEmpty());
+    }
+}
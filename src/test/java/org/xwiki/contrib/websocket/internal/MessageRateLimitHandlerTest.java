@@ -0,0 +1,139 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.ReferenceCountUtil;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link MessageRateLimitHandler}.
+ * 
+ * @version $Id$
+ */
+class MessageRateLimitHandlerTest
+{
+    @Test
+    void throttleAndResumeOnMessageRate() throws Exception
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(new MessageRateLimitHandler(10, 0));
+
+        for (int i = 0; i < 10; i++) {
+            channel.writeInbound(new TextWebSocketFrame("message"));
+        }
+        assertTrue(channel.config().isAutoRead());
+
+        channel.writeInbound(new TextWebSocketFrame("message"));
+        assertFalse(channel.config().isAutoRead());
+
+        // The throttled frame is not lost.
+        assertEquals(11, channel.inboundMessages().size());
+
+        waitForResume(channel);
+        assertTrue(channel.config().isAutoRead());
+
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void throttleAndResumeOnByteRate() throws Exception
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(new MessageRateLimitHandler(0, 100));
+
+        channel.writeInbound(new BinaryWebSocketFrame(Unpooled.wrappedBuffer(new byte[100])));
+        assertTrue(channel.config().isAutoRead());
+
+        channel.writeInbound(new BinaryWebSocketFrame(Unpooled.wrappedBuffer(new byte[10])));
+        assertFalse(channel.config().isAutoRead());
+
+        waitForResume(channel);
+        assertTrue(channel.config().isAutoRead());
+
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void dontCountOtherMessages()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(new MessageRateLimitHandler(1, 1));
+
+        channel.writeInbound("request", "request", "request");
+        assertTrue(channel.config().isAutoRead());
+
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void dontReapThrottledConnection() throws Exception
+    {
+        AtomicLong reapedConnections = new AtomicLong();
+        EmbeddedChannel channel = new EmbeddedChannel(new IdleConnectionHandler(0, reapedConnections),
+            new MessageRateLimitHandler(1, 0));
+        channel.writeInbound("request");
+        channel.writeOutbound(
+            new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.SWITCHING_PROTOCOLS));
+        ReferenceCountUtil.release(channel.readOutbound());
+
+        channel.writeInbound(new TextWebSocketFrame("message"), new TextWebSocketFrame("message"));
+        assertFalse(channel.config().isAutoRead());
+
+        // The client is not read so it can't answer the ping.
+        channel.pipeline().fireUserEventTriggered(IdleStateEvent.FIRST_READER_IDLE_STATE_EVENT);
+        channel.runScheduledPendingTasks();
+        assertNull(channel.readOutbound());
+        assertTrue(channel.isOpen());
+        assertEquals(0, reapedConnections.get());
+
+        // The idle handling is back once the client is read again.
+        waitForResume(channel);
+        channel.pipeline().fireUserEventTriggered(IdleStateEvent.READER_IDLE_STATE_EVENT);
+        Object ping = channel.readOutbound();
+        assertTrue(ping instanceof PingWebSocketFrame);
+        ReferenceCountUtil.release(ping);
+
+        channel.finishAndReleaseAll();
+    }
+
+    private void waitForResume(EmbeddedChannel channel) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!channel.config().isAutoRead() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+            channel.runScheduledPendingTasks();
+        }
+    }
+}
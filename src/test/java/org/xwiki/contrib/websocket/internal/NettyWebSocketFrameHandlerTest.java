@@ -0,0 +1,155 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for {@link NettyWebSocketFrameHandler}.
+ * 
+ * @version $Id$
+ */
+class NettyWebSocketFrameHandlerTest
+{
+    private final NettyWebSocket webSocket = mock(NettyWebSocket.class);
+
+    private EmbeddedChannel channel;
+
+    @BeforeEach
+    void configure()
+    {
+        this.channel = new EmbeddedChannel(new NettyWebSocketFrameHandler(this.webSocket,
+            new OrderedExecutor(Runnable::run, 0), mock(WebSocketHandlerMetrics.class), 10));
+    }
+
+    @Test
+    void ping()
+    {
+        this.channel.writeInbound(new PingWebSocketFrame(Unpooled.copiedBuffer("ping", StandardCharsets.UTF_8)));
+
+        PongWebSocketFrame pong = this.channel.readOutbound();
+        assertEquals("ping", pong.content().toString(StandardCharsets.UTF_8));
+        pong.release();
+    }
+
+    @Test
+    void pong()
+    {
+        this.channel.writeInbound(new PongWebSocketFrame());
+
+        assertNull(this.channel.readOutbound());
+        verify(this.webSocket, never()).message(any(ByteBuf.class), any(Boolean.class), any(Boolean.class));
+    }
+
+    @Test
+    void close()
+    {
+        this.channel.writeInbound(new CloseWebSocketFrame(1000, "bye"));
+
+        CloseWebSocketFrame close = this.channel.readOutbound();
+        assertEquals(1000, close.statusCode());
+        close.release();
+        assertFalse(this.channel.isOpen());
+    }
+
+    @Test
+    void messages()
+    {
+        this.channel.writeInbound(new TextWebSocketFrame("text"));
+        this.channel.writeInbound(new BinaryWebSocketFrame(false, 0, Unpooled.wrappedBuffer(new byte[] {1})));
+        this.channel.writeInbound(new ContinuationWebSocketFrame(true, 0, Unpooled.wrappedBuffer(new byte[] {2})));
+
+        verify(this.webSocket).message(any(ByteBuf.class), eq(true), eq(true));
+        verify(this.webSocket).message(any(ByteBuf.class), eq(false), eq(false));
+        verify(this.webSocket).message(any(ByteBuf.class), eq(false), eq(true));
+    }
+
+    @Test
+    void messageTooBig()
+    {
+        this.channel.writeInbound(new TextWebSocketFrame("0123456789a"));
+
+        assertFalse(this.channel.isOpen());
+        verify(this.webSocket, never()).message(any(ByteBuf.class), any(Boolean.class), any(Boolean.class));
+    }
+
+    @Test
+    void fragmentedMessageTooBig()
+    {
+        this.channel.writeInbound(new TextWebSocketFrame(false, 0, "0123456789"));
+        this.channel.writeInbound(new ContinuationWebSocketFrame(true, 0, "a"));
+
+        assertFalse(this.channel.isOpen());
+    }
+
+    @Test
+    void disconnectAfterPendingMessagesWhenOverloaded()
+    {
+        List<Runnable> scheduled = new ArrayList<>();
+        NettyWebSocketFrameHandler frameHandler = new NettyWebSocketFrameHandler(this.webSocket,
+            new OrderedExecutor(scheduled::add, 2), mock(WebSocketHandlerMetrics.class), 10);
+        EmbeddedChannel overloadedChannel = new EmbeddedChannel(frameHandler);
+        overloadedChannel.closeFuture().addListener(future -> frameHandler.disconnected());
+
+        // The third message exceeds the limit of pending callbacks, which closes the connection.
+        overloadedChannel.writeInbound(new TextWebSocketFrame("one"));
+        overloadedChannel.writeInbound(new TextWebSocketFrame("two"));
+        overloadedChannel.writeInbound(new TextWebSocketFrame("three"));
+        overloadedChannel.runPendingTasks();
+
+        assertFalse(overloadedChannel.isOpen());
+        verify(this.webSocket, never()).disconnect();
+
+        // The disconnect callback is queued after the pending messages, in spite of the limit.
+        assertEquals(1, scheduled.size());
+        scheduled.get(0).run();
+
+        InOrder inOrder = inOrder(this.webSocket);
+        inOrder.verify(this.webSocket, times(2)).message(any(ByteBuf.class), eq(true), eq(true));
+        inOrder.verify(this.webSocket).disconnect();
+    }
+}
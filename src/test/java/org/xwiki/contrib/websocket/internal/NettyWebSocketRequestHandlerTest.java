@@ -0,0 +1,243 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Answers;
+import org.slf4j.LoggerFactory;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.container.Container;
+import org.xwiki.container.Request;
+import org.xwiki.container.Response;
+import org.xwiki.container.servlet.ServletRequest;
+import org.xwiki.container.servlet.ServletResponse;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.contrib.websocket.WebSocket;
+import org.xwiki.contrib.websocket.WebSocketConfig;
+import org.xwiki.contrib.websocket.WebSocketHandler;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.web.XWikiServletResponseStub;
+
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpVersion;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link NettyWebSocketRequestHandler}.
+ * 
+ * @version $Id$
+ */
+class NettyWebSocketRequestHandlerTest
+{
+    private static final String WIKI = "xwiki";
+
+    private static final String HANDLER = "echo";
+
+    private final NettyWebSocketRequestHandler requestHandler = new NettyWebSocketRequestHandler();
+
+    private final WebSocketConfig config = mock(WebSocketConfig.class, Answers.CALLS_REAL_METHODS);
+
+    private final WebSocketHandlerExecutor handlerExecutor = mock(WebSocketHandlerExecutor.class);
+
+    private final WebSocketContextInitializer xcontextInitializer = mock(WebSocketContextInitializer.class);
+
+    private final WebSocketHandler handler = mock(WebSocketHandler.class);
+
+    private final List<Runnable> scheduled = new ArrayList<>();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void configure() throws Exception
+    {
+        when(this.config.maxFrameSize()).thenReturn(65536);
+        when(this.handlerExecutor.newConnectionExecutor()).thenReturn(new OrderedExecutor(this.scheduled::add, 0));
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(0).run();
+            return null;
+        }).when(this.handlerExecutor).executeHandshake(any(), any());
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(1).run();
+            return null;
+        }).when(this.xcontextInitializer).run(any(), any());
+
+        XWikiContext xcontext = mock(XWikiContext.class);
+        when(xcontext.getWikiId()).thenReturn(WIKI);
+        Provider<XWikiContext> xcontextProvider = mock(Provider.class);
+        when(xcontextProvider.get()).thenReturn(xcontext);
+        WikiDescriptorManager wikiDescriptorManager = mock(WikiDescriptorManager.class);
+        when(wikiDescriptorManager.exists(WIKI)).thenReturn(true);
+        WebSocketHandlerCache handlerCache = mock(WebSocketHandlerCache.class);
+        when(handlerCache.getHandler(HANDLER)).thenReturn(this.handler);
+        WebSocketMetrics metrics = mock(WebSocketMetrics.class);
+        when(metrics.getHandlerMetrics(WIKI, HANDLER)).thenReturn(mock(WebSocketHandlerMetrics.class));
+
+        ReflectionUtils.setFieldValue(this.requestHandler, "logger",
+            LoggerFactory.getLogger(NettyWebSocketRequestHandler.class));
+        ReflectionUtils.setFieldValue(this.requestHandler, "handlerCache", handlerCache);
+        ReflectionUtils.setFieldValue(this.requestHandler, "connectionLimiter", mock(WebSocketConnectionLimiter.class));
+        ReflectionUtils.setFieldValue(this.requestHandler, "xcontextProvider", xcontextProvider);
+        ReflectionUtils.setFieldValue(this.requestHandler, "metrics", metrics);
+        ReflectionUtils.setFieldValue(this.requestHandler, "wikiDescriptorManager", wikiDescriptorManager);
+        ReflectionUtils.setFieldValue(this.requestHandler, "xcontextInitializer", this.xcontextInitializer);
+        ReflectionUtils.setFieldValue(this.requestHandler, "config", this.config);
+        ReflectionUtils.setFieldValue(this.requestHandler, "handlerExecutor", this.handlerExecutor);
+    }
+
+    @Test
+    void rejectWhenTooManyHandshakes()
+    {
+        doThrow(new RejectedExecutionException()).when(this.handlerExecutor).executeHandshake(any(), any());
+        EmbeddedChannel channel = new EmbeddedChannel(this.requestHandler);
+        FullHttpRequest request = newHandshakeRequest();
+
+        channel.writeInbound(request);
+
+        FullHttpResponse response = channel.readOutbound();
+        assertEquals(HttpResponseStatus.SERVICE_UNAVAILABLE, response.status());
+        assertEquals("5", response.headers().get(HttpHeaderNames.RETRY_AFTER));
+        response.release();
+        assertEquals(0, request.refCnt());
+        assertFalse(channel.isOpen());
+        verify(this.handler, never()).onConnect(any());
+    }
+
+    @Test
+    void connectBeforeTheOtherCallbacks()
+    {
+        List<String> events = new ArrayList<>();
+        doAnswer(invocation -> {
+            events.add("connect");
+            invocation.<WebSocket>getArgument(0).onWritabilityChanged(writable -> events.add("writability"));
+            return null;
+        }).when(this.handler).onConnect(any());
+        EmbeddedChannel channel = new EmbeddedChannel(new HttpServerCodec(), this.requestHandler);
+
+        channel.writeInbound(newHandshakeRequest());
+
+        // The handler is connected through the connection executor, not by the handshake.
+        verify(this.handler, never()).onConnect(any());
+        assertEquals(1, this.scheduled.size());
+
+        // A callback submitted in the meantime is executed after the handler is connected.
+        channel.pipeline().fireChannelWritabilityChanged();
+        this.scheduled.get(0).run();
+
+        assertEquals(Arrays.asList("connect", "writability"), events);
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void connectionMemoryBudget() throws Exception
+    {
+        // Capture the XWiki context snapshot like the real context initializer does.
+        XWikiContext handshakeContext = new XWikiContext();
+        ExecutionContext executionContext = new ExecutionContext();
+        executionContext.setProperty(XWikiContext.EXECUTIONCONTEXT_KEY, handshakeContext);
+        Execution execution = mock(Execution.class);
+        when(execution.getContext()).thenReturn(executionContext);
+        AtomicReference<Request> containerRequest = new AtomicReference<>();
+        AtomicReference<Response> containerResponse = new AtomicReference<>();
+        Container container = mock(Container.class);
+        when(container.getRequest()).thenAnswer(invocation -> containerRequest.get());
+        when(container.getResponse()).thenAnswer(invocation -> containerResponse.get());
+        WebSocketContextInitializer snapshotInitializer = new WebSocketContextInitializer();
+        ReflectionUtils.setFieldValue(snapshotInitializer, "execution", execution);
+        ReflectionUtils.setFieldValue(snapshotInitializer, "container", container);
+        doAnswer(invocation -> {
+            XWikiWebSocketRequest xwikiRequest = invocation.getArgument(0);
+            XWikiServletResponseStub response = new XWikiServletResponseStub();
+            handshakeContext.setWikiId(WIKI);
+            handshakeContext.setRequest(xwikiRequest);
+            handshakeContext.setResponse(response);
+            containerRequest.set(new ServletRequest(xwikiRequest));
+            containerResponse.set(new ServletResponse(response));
+            return null;
+        }).when(this.xcontextInitializer).initialize(any());
+        when(this.xcontextInitializer.snapshot()).thenAnswer(invocation -> snapshotInitializer.snapshot());
+
+        // Register a few listeners, like most handlers do.
+        doAnswer(invocation -> {
+            WebSocket webSocket = invocation.getArgument(0);
+            webSocket.onMessage(webSocket::send);
+            webSocket.onDisconnect(() -> {
+            });
+            return null;
+        }).when(this.handler).onConnect(any());
+
+        EmbeddedChannel channel = new EmbeddedChannel(new HttpServerCodec(), this.requestHandler);
+        channel.writeInbound(NettyXWikiWebSocketRequestTest.newBrowserHandshakeRequest());
+        this.scheduled.forEach(Runnable::run);
+        verify(this.handler).onConnect(any());
+
+        // The channel is owned by Netty, the thread pools and the (mocked) configuration, metrics and handler are
+        // shared between the connections.
+        RetainedSizeEstimator estimator = new RetainedSizeEstimator(object -> object instanceof Channel
+            || object instanceof HttpVersion || object instanceof Executor && !(object instanceof OrderedExecutor));
+        long size = estimator.estimate(channel.pipeline().get(NettyWebSocketFrameHandler.class));
+        assertTrue(size < NettyWebSocketFrameHandler.CONNECTION_MEMORY_BUDGET,
+            "The connection retains about [" + size + "] bytes.");
+
+        channel.finishAndReleaseAll();
+    }
+
+    private FullHttpRequest newHandshakeRequest()
+    {
+        String uri = "/xwiki/websocket/" + WIKI + '/' + HANDLER;
+        FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri);
+        request.headers().set(HttpHeaderNames.HOST, "localhost");
+        request.headers().set(HttpHeaderNames.UPGRADE, HttpHeaderValues.WEBSOCKET);
+        request.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.UPGRADE);
+        request.headers().set(HttpHeaderNames.SEC_WEBSOCKET_KEY, "dGhlIHNhbXBsZSBub25jZQ==");
+        request.headers().set(HttpHeaderNames.SEC_WEBSOCKET_VERSION, "13");
+        return request;
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Answers;
+import org.xwiki.contrib.websocket.WebSocketConfig;
+import org.xwiki.contrib.websocket.codec.JsonWebSocketCodec;
+import org.xwiki.contrib.websocket.codec.RawWebSocketCodec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit tests for {@link NettyWebSocket}: the reassembly of fragmented messages (using the frame handler of the server
+ * pipeline) and the backpressure policies.
+ * 
+ * @version $Id$
+ */
+class NettyWebSocketTest
+{
+    private static final int MAX_MESSAGE_SIZE = 16;
+
+    private static final int MAX_PENDING_BYTES = 1024;
+
+    private final WebSocketConfig config = mock(WebSocketConfig.class, Answers.CALLS_REAL_METHODS);
+
+    private final WebSocketHandlerMetrics metrics = new WebSocketHandlerMetrics("xwiki", "test");
+
+    private final List<String> textMessages = new ArrayList<>();
+
+    private final List<byte[]> binaryMessages = new ArrayList<>();
+
+    private EmbeddedChannel channel;
+
+    private NettyWebSocket webSocket;
+
+    private NettyWebSocketFrameHandler frameHandler;
+
+    @BeforeEach
+    void configure()
+    {
+        this.channel = new EmbeddedChannel();
+        this.webSocket = new NettyWebSocket(this.channel, this.config, this.metrics);
+        this.frameHandler = new NettyWebSocketFrameHandler(this.webSocket, new OrderedExecutor(Runnable::run, 0),
+            this.metrics, MAX_MESSAGE_SIZE);
+        this.channel.pipeline().addLast(this.frameHandler);
+        this.channel.closeFuture().addListener(future -> this.frameHandler.disconnected());
+
+        this.webSocket.onMessage(this.textMessages::add);
+        this.webSocket.onBinaryMessage(message -> {
+            byte[] bytes = new byte[message.remaining()];
+            message.get(bytes);
+            this.binaryMessages.add(bytes);
+        });
+    }
+
+    @Test
+    void fragmentedTextMessage()
+    {
+        // The fragments are not decoded separately so a multi-byte character can be split between them.
+        byte[] bytes = "caf\u00e9!".getBytes(StandardCharsets.UTF_8);
+        this.channel.writeInbound(new TextWebSocketFrame(false, 0, Unpooled.wrappedBuffer(bytes, 0, 4)));
+        this.channel.writeInbound(new ContinuationWebSocketFrame(false, 0, Unpooled.wrappedBuffer(bytes, 4, 1)));
+        assertTrue(this.textMessages.isEmpty());
+        this.channel.writeInbound(new ContinuationWebSocketFrame(true, 0, Unpooled.wrappedBuffer(bytes, 5, 1)));
+
+        assertEquals(1, this.textMessages.size());
+        assertEquals("caf\u00e9!", this.textMessages.get(0));
+        assertTrue(this.binaryMessages.isEmpty());
+    }
+
+    @Test
+    void fragmentedBinaryMessage()
+    {
+        this.channel.writeInbound(new BinaryWebSocketFrame(false, 0, Unpooled.wrappedBuffer(new byte[] {1, 2})));
+        this.channel.writeInbound(new ContinuationWebSocketFrame(true, 0, Unpooled.wrappedBuffer(new byte[] {3})));
+
+        assertEquals(1, this.binaryMessages.size());
+        assertArrayEquals(new byte[] {1, 2, 3}, this.binaryMessages.get(0));
+        assertTrue(this.textMessages.isEmpty());
+    }
+
+    @Test
+    void messageStream()
+    {
+        List<String> fragments = new ArrayList<>();
+        this.webSocket.onMessageStream(
+            (fragment, last) -> fragments.add(StandardCharsets.UTF_8.decode(fragment).toString() + (last ? "$" : "")));
+
+        this.channel.writeInbound(new TextWebSocketFrame(false, 0, "ab"));
+        this.channel.writeInbound(new ContinuationWebSocketFrame(true, 0, "c"));
+
+        assertEquals(2, fragments.size());
+        assertEquals("ab", fragments.get(0));
+        assertEquals("c$", fragments.get(1));
+        assertEquals("abc", this.textMessages.get(0));
+    }
+
+    @Test
+    void controlFramesBetweenFragments()
+    {
+        this.channel.writeInbound(new TextWebSocketFrame(false, 0, "ab"));
+        this.channel.writeInbound(new PingWebSocketFrame(Unpooled.copiedBuffer("ping", StandardCharsets.UTF_8)));
+        this.channel.writeInbound(new PongWebSocketFrame());
+        this.channel.writeInbound(new ContinuationWebSocketFrame(true, 0, "cd"));
+
+        assertEquals(1, this.textMessages.size());
+        assertEquals("abcd", this.textMessages.get(0));
+
+        PongWebSocketFrame pong = this.channel.readOutbound();
+        assertEquals("ping", pong.content().toString(StandardCharsets.UTF_8));
+        pong.release();
+    }
+
+    @Test
+    void messageTooBig()
+    {
+        ByteBuf fragment = Unpooled.wrappedBuffer(new byte[MAX_MESSAGE_SIZE]);
+        this.channel.writeInbound(new BinaryWebSocketFrame(false, 0, fragment));
+        assertEquals(1, fragment.refCnt());
+
+        this.channel.writeInbound(new ContinuationWebSocketFrame(true, 0, Unpooled.wrappedBuffer(new byte[] {1})));
+
+        assertFalse(this.channel.isOpen());
+        assertTrue(this.binaryMessages.isEmpty());
+        // The fragments received before are released when the connection is closed.
+        assertEquals(0, fragment.refCnt());
+    }
+
+    @Test
+    void disconnectWhileReceivingMessage()
+    {
+        ByteBuf fragment = Unpooled.copiedBuffer("ab", StandardCharsets.UTF_8);
+        this.channel.writeInbound(new TextWebSocketFrame(false, 0, fragment));
+        // Retained by the WebSocket until the message is complete.
+        assertEquals(1, fragment.refCnt());
+
+        this.channel.close();
+
+        assertEquals(0, fragment.refCnt());
+        assertTrue(this.textMessages.isEmpty());
+    }
+
+    @Test
+    void singleFrameMessage()
+    {
+        ByteBuffer expected = ByteBuffer.wrap(new byte[] {4, 5});
+        this.channel.writeInbound(new BinaryWebSocketFrame(Unpooled.wrappedBuffer(expected.duplicate())));
+        this.channel.writeInbound(new TextWebSocketFrame("hello"));
+
+        assertArrayEquals(expected.array(), this.binaryMessages.get(0));
+        assertEquals("hello", this.textMessages.get(0));
+    }
+
+    @Test
+    @SuppressWarnings("rawtypes")
+    void typedMessageHandlerIgnoresOtherMessageType()
+    {
+        List<Integer> binaryMessages = new ArrayList<>();
+        this.webSocket.as(new RawWebSocketCodec()).onMessage(message -> binaryMessages.add(message.remaining()));
+        List<Object> textMessages = new ArrayList<>();
+        this.webSocket.as(new JsonWebSocketCodec<>(Map.class)).onMessage(textMessages::add);
+
+        this.channel.writeInbound(new BinaryWebSocketFrame(Unpooled.wrappedBuffer(new byte[] {1, 2})));
+        this.channel.writeInbound(new TextWebSocketFrame("{\"count\":2}"));
+
+        assertEquals(Collections.singletonList(2), binaryMessages);
+        assertEquals(Collections.singletonList(Collections.singletonMap("count", 2)), textMessages);
+    }
+
+    @Test
+    void removeTypedMessageHandler()
+    {
+        List<Integer> typedMessages = new ArrayList<>();
+        Consumer<ByteBuffer> messageHandler = message -> typedMessages.add(message.remaining());
+        this.webSocket.as(new RawWebSocketCodec()).onMessage(messageHandler);
+        this.channel.writeInbound(new BinaryWebSocketFrame(Unpooled.wrappedBuffer(new byte[] {1, 2})));
+
+        // The typed message handler is removed even though the WebSocket holds a wrapper that decodes the messages.
+        assertTrue(this.webSocket.removeCallback(messageHandler));
+        assertFalse(this.webSocket.removeCallback(messageHandler));
+        this.channel.writeInbound(new BinaryWebSocketFrame(Unpooled.wrappedBuffer(new byte[] {3})));
+
+        assertEquals(Collections.singletonList(2), typedMessages);
+        assertEquals(2, this.binaryMessages.size());
+    }
+
+    @Test
+    void backpressureNone()
+    {
+        EmbeddedChannel slowChannel = newSlowChannel();
+        NettyWebSocket slowWebSocket = newWebSocket(slowChannel, NettyWebSocket.BACKPRESSURE_NONE);
+
+        assertFalse(slowWebSocket.sendAsync("message").isCompletedExceptionally());
+        assertTrue(slowChannel.isOpen());
+        assertTrue(slowChannel.finishAndReleaseAll());
+    }
+
+    @Test
+    void backpressureDrop()
+    {
+        EmbeddedChannel slowChannel = newSlowChannel();
+        NettyWebSocket slowWebSocket = newWebSocket(slowChannel, NettyWebSocket.BACKPRESSURE_DROP);
+
+        assertTrue(slowWebSocket.sendAsync("message").isCompletedExceptionally());
+        assertTrue(slowChannel.isOpen());
+        assertEquals(0, this.metrics.getOutboundMessages());
+        slowChannel.finishAndReleaseAll();
+    }
+
+    @Test
+    void backpressureClose()
+    {
+        EmbeddedChannel slowChannel = newSlowChannel();
+        NettyWebSocket slowWebSocket = newWebSocket(slowChannel, NettyWebSocket.BACKPRESSURE_CLOSE);
+
+        assertTrue(slowWebSocket.sendAsync("message").isCompletedExceptionally());
+        assertFalse(slowChannel.isOpen());
+    }
+
+    @Test
+    void backpressureBlockOnEventLoop()
+    {
+        // The embedded channel executes everything on its event loop, which can't be blocked.
+        EmbeddedChannel slowChannel = newSlowChannel();
+        NettyWebSocket slowWebSocket = newWebSocket(slowChannel, NettyWebSocket.BACKPRESSURE_BLOCK);
+
+        assertTrue(slowWebSocket.sendAsync("message").isCompletedExceptionally());
+        assertFalse(slowChannel.isOpen());
+    }
+
+    @Test
+    void backpressureBlockOnSharedMessage()
+    {
+        EmbeddedChannel slowChannel = newSlowChannel();
+        NettyWebSocket slowWebSocket = newWebSocket(slowChannel, NettyWebSocket.BACKPRESSURE_BLOCK);
+        ByteBuf content = Unpooled.copiedBuffer("message", StandardCharsets.UTF_8);
+
+        slowWebSocket.send(content, true);
+
+        assertFalse(slowChannel.isOpen());
+        assertEquals(1, content.refCnt());
+        content.release();
+    }
+
+    /**
+     * @return a channel whose client is too far behind: the data written to it is not flushed
+     */
+    private EmbeddedChannel newSlowChannel()
+    {
+        EmbeddedChannel slowChannel = new EmbeddedChannel();
+        slowChannel.write(Unpooled.wrappedBuffer(new byte[MAX_PENDING_BYTES + 1]));
+        return slowChannel;
+    }
+
+    private NettyWebSocket newWebSocket(EmbeddedChannel slowChannel, String backpressurePolicy)
+    {
+        WebSocketConfig slowConfig = mock(WebSocketConfig.class, Answers.CALLS_REAL_METHODS);
+        doReturn((long) MAX_PENDING_BYTES).when(slowConfig).getMaxPendingBytes();
+        doReturn(backpressurePolicy).when(slowConfig).getBackpressurePolicy();
+        return new NettyWebSocket(slowChannel, slowConfig, this.metrics);
+    }
+}
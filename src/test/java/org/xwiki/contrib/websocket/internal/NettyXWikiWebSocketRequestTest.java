@@ -0,0 +1,106 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link NettyXWikiWebSocketRequest}.
+ * 
+ * @version $Id$
+ */
+class NettyXWikiWebSocketRequestTest
+{
+    @Test
+    void snapshot() throws Exception
+    {
+        FullHttpRequest request = newBrowserHandshakeRequest();
+        NettyXWikiWebSocketRequest xwikiRequest = new NettyXWikiWebSocketRequest(request, new EmbeddedChannel());
+        request.release();
+
+        // The snapshot is usable after the Netty request is released.
+        assertEquals("GET", xwikiRequest.getMethod());
+        assertEquals("localhost:8093", xwikiRequest.getHeader("host"));
+        assertEquals("websocket", xwikiRequest.getHeader("Upgrade"));
+        assertNull(xwikiRequest.getHeader("Content-Type"));
+        assertEquals(-1, xwikiRequest.getContentLength());
+        assertEquals(-1, xwikiRequest.getDateHeader("If-Modified-Since"));
+        assertEquals("HTTP/1.1", xwikiRequest.getProtocol());
+        assertEquals(11, Collections.list(xwikiRequest.getHeaderNames()).size());
+        assertEquals("ABCDEF0123456789ABCDEF0123456789", xwikiRequest.getCookie("JSESSIONID").getValue());
+        assertEquals("v", xwikiRequest.getParameter("k"));
+        assertNull(xwikiRequest.getParameter("missing"));
+        assertEquals("/xwiki/websocket/xwiki/echo", xwikiRequest.getPathInfo());
+        assertEquals("xwiki", xwikiRequest.getWebSocketURI().getWiki());
+        assertEquals("echo", xwikiRequest.getWebSocketURI().getHandler());
+    }
+
+    @Test
+    void requestSnapshotMemoryBudget() throws Exception
+    {
+        FullHttpRequest request = newBrowserHandshakeRequest();
+        NettyXWikiWebSocketRequest xwikiRequest = new NettyXWikiWebSocketRequest(request, new EmbeddedChannel());
+        request.release();
+
+        // Simulate what the authentication does.
+        xwikiRequest.getCookies();
+        xwikiRequest.getSession().getAttribute("xwiki.user");
+
+        long size = new RetainedSizeEstimator(HttpVersion.class::isInstance).estimate(xwikiRequest);
+        assertTrue(size < NettyXWikiWebSocketRequest.REQUEST_SNAPSHOT_MEMORY_BUDGET,
+            "The request snapshot retains about [" + size + "] bytes.");
+    }
+
+    /**
+     * @return a handshake request similar to the one sent by a browser
+     */
+    static FullHttpRequest newBrowserHandshakeRequest()
+    {
+        FullHttpRequest request =
+            new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/xwiki/websocket/xwiki/echo?k=v");
+        request.headers().add("Host", "localhost:8093");
+        request.headers().add("User-Agent",
+            "Mozilla/5.0 (X11; Ubuntu; Linux x86_64; rv:81.0) Gecko/20100101 Firefox/81.0");
+        request.headers().add("Accept", "*/*");
+        request.headers().add("Accept-Language", "en-US,en;q=0.5");
+        request.headers().add("Sec-WebSocket-Version", "13");
+        request.headers().add("Origin", "http://localhost:8080");
+        request.headers().add("Sec-WebSocket-Extensions", "permessage-deflate");
+        request.headers().add("Sec-WebSocket-Key", "dGhlIHNhbXBsZSBub25jZQ==");
+        request.headers().add("Connection", "keep-alive, Upgrade");
+        request.headers().add("Cookie", "JSESSIONID=ABCDEF0123456789ABCDEF0123456789; "
+            + "username=\"nZeRiKGqqe36Sp4rFI7MjQ--\"; password=\"eSHnEpJAXqkFIKhkiXV5wQ--\"; rememberme=\"false\"; "
+            + "validation=\"9d7e4d3b2c1a0f9e8d7c6b5a4f3e2d1c\"");
+        request.headers().add("Upgrade", "websocket");
+        return request;
+    }
+}
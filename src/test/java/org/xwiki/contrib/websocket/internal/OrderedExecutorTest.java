@@ -0,0 +1,198 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link OrderedExecutor}.
+ * 
+ * @version $Id$
+ */
+class OrderedExecutorTest
+{
+    private ExecutorService pool;
+
+    @BeforeEach
+    void configure()
+    {
+        this.pool = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        this.pool.shutdownNow();
+    }
+
+    @Test
+    void executeInOrder() throws Exception
+    {
+        OrderedExecutor executor = new OrderedExecutor(this.pool, 0);
+        List<Integer> results = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        for (int i = 0; i < 100; i++) {
+            int value = i;
+            executor.execute(() -> results.add(value));
+        }
+        executor.execute(done::countDown);
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, results.get(i));
+        }
+    }
+
+    @Test
+    void rejectWhenTooManyPendingTasks() throws Exception
+    {
+        OrderedExecutor executor = new OrderedExecutor(this.pool, 2);
+        CountDownLatch blocked = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        executor.execute(() -> { });
+
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> { }));
+
+        blocked.countDown();
+    }
+
+    @Test
+    void concurrentSubmittersDontExceedTheLimit() throws Exception
+    {
+        // The tasks are never executed so they stay pending.
+        OrderedExecutor executor = new OrderedExecutor(task -> { }, 10);
+        AtomicInteger accepted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            this.pool.execute(() -> {
+                try {
+                    start.await();
+                    for (int j = 0; j < 100; j++) {
+                        try {
+                            executor.execute(() -> { });
+                            accepted.incrementAndGet();
+                        } catch (RejectedExecutionException e) {
+                            // Expected once the limit is reached.
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        start.countDown();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(10, accepted.get());
+        assertEquals(10, executor.getPendingCount());
+    }
+
+    @Test
+    void undoRejectedTask()
+    {
+        OrderedExecutor executor = new OrderedExecutor(task -> {
+            throw new RejectedExecutionException();
+        }, 1);
+        List<String> results = new ArrayList<>();
+
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> results.add("first")));
+        assertEquals(0, executor.getPendingCount());
+
+        // The slot of the rejected task is released.
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> results.add("second")));
+        assertEquals(Collections.emptyList(), results);
+    }
+
+    @Test
+    void dontStrandTasksSubmittedWhileRejecting()
+    {
+        List<String> results = new ArrayList<>();
+        OrderedExecutor[] executor = new OrderedExecutor[1];
+        Executor delegate = task -> {
+            // Another task is submitted before the shared executor rejects the drain loop. It counts on the drain loop
+            // so it must not be lost.
+            executor[0].execute(() -> results.add("second"));
+            throw new RejectedExecutionException();
+        };
+        executor[0] = new OrderedExecutor(delegate, 0);
+
+        executor[0].execute(() -> results.add("first"));
+
+        assertEquals(Arrays.asList("first", "second"), results);
+        assertEquals(0, executor[0].getPendingCount());
+    }
+
+    @Test
+    void executeUnboundedAfterPendingTasks()
+    {
+        List<Runnable> scheduled = new ArrayList<>();
+        OrderedExecutor executor = new OrderedExecutor(scheduled::add, 1);
+        List<String> results = new ArrayList<>();
+        executor.execute(() -> results.add("first"));
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> results.add("rejected")));
+
+        executor.executeUnbounded(() -> results.add("last"));
+        assertEquals(2, executor.getPendingCount());
+
+        scheduled.get(0).run();
+        assertEquals(Arrays.asList("first", "last"), results);
+        assertEquals(0, executor.getPendingCount());
+    }
+
+    @Test
+    void executeUnboundedWhenTheSharedExecutorIsSaturated()
+    {
+        OrderedExecutor executor = new OrderedExecutor(task -> {
+            throw new RejectedExecutionException();
+        }, 1);
+        List<String> results = new ArrayList<>();
+
+        executor.executeUnbounded(() -> results.add("last"));
+
+        assertEquals(Collections.singletonList("last"), results);
+    }
+}
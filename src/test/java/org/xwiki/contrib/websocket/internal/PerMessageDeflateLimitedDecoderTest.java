@@ -0,0 +1,77 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Test;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link PerMessageDeflateLimitedDecoder}.
+ * 
+ * @version $Id$
+ */
+class PerMessageDeflateLimitedDecoderTest
+{
+    @Test
+    void decompressMessages()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(new PerMessageDeflateLimitedDecoder(false, 1000));
+        for (int i = 0; i < 2; i++) {
+            String message = StringUtils.repeat("{\"op\":\"insert\",\"text\":\"hello\"}", 20);
+            channel.writeInbound(compress(message));
+
+            TextWebSocketFrame frame = channel.readInbound();
+            assertEquals(0, frame.rsv());
+            assertEquals(message, frame.text());
+            frame.release();
+        }
+
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void rejectDecompressionBomb()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(new PerMessageDeflateLimitedDecoder(false, 1000));
+        TextWebSocketFrame frame = compress(StringUtils.repeat('a', 1000000));
+        assertTrue(frame.content().readableBytes() < 1000);
+
+        assertThrows(TooLongFrameException.class, () -> channel.writeInbound(frame));
+
+        channel.finishAndReleaseAll();
+    }
+
+    private TextWebSocketFrame compress(String message)
+    {
+        EmbeddedChannel encoder = new EmbeddedChannel(new PerMessageDeflateThresholdEncoder(6, 15, false, 0));
+        encoder.writeOutbound(new TextWebSocketFrame(message));
+        TextWebSocketFrame frame = encoder.readOutbound();
+        encoder.finishAndReleaseAll();
+        return frame;
+    }
+}
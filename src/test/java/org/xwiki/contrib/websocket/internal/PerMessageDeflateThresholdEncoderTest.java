@@ -0,0 +1,91 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Inflater;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtension;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link PerMessageDeflateThresholdEncoder}.
+ * 
+ * @version $Id$
+ */
+class PerMessageDeflateThresholdEncoderTest
+{
+    private static final byte[] FRAME_TAIL = new byte[] {0x00, 0x00, (byte) 0xff, (byte) 0xff};
+
+    @Test
+    void compressBigMessages() throws Exception
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(new PerMessageDeflateThresholdEncoder(6, 15, false, 100));
+        String message = StringUtils.repeat("{\"op\":\"insert\",\"text\":\"hello\"}", 20);
+        channel.writeOutbound(new TextWebSocketFrame(message));
+
+        TextWebSocketFrame frame = channel.readOutbound();
+        assertEquals(WebSocketExtension.RSV1, frame.rsv() & WebSocketExtension.RSV1);
+        assertTrue(frame.content().readableBytes() < message.length());
+        assertEquals(message, inflate(frame.content()));
+
+        frame.release();
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void skipSmallMessages()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(new PerMessageDeflateThresholdEncoder(6, 15, false, 100));
+        channel.writeOutbound(new TextWebSocketFrame("small"));
+
+        TextWebSocketFrame frame = channel.readOutbound();
+        assertEquals(0, frame.rsv());
+        assertEquals("small", frame.text());
+
+        frame.release();
+        channel.finishAndReleaseAll();
+    }
+
+    private String inflate(ByteBuf content) throws Exception
+    {
+        Inflater inflater = new Inflater(true);
+        // Restore the empty deflate block removed by the encoder.
+        inflater.setInput(ArrayUtils.addAll(ByteBufUtil.getBytes(content), FRAME_TAIL));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        while (!inflater.needsInput()) {
+            output.write(buffer, 0, inflater.inflate(buffer));
+        }
+        inflater.end();
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+
+/**
+ * Estimates the number of bytes retained by an object, by walking its object graph. The model is rough (no field
+ * packing nor alignment, compact strings) but good enough to detect when a connection retains more than it should.
+ * The JDK objects whose fields are not accessible are counted without their content.
+ * 
+ * @version $Id$
+ */
+class RetainedSizeEstimator
+{
+    /**
+     * The size of an object header and of an array header, for a 64-bit JVM.
+     */
+    private static final int HEADER_SIZE = 16;
+
+    /**
+     * The size of a reference or a field (we don't try to model the field packing).
+     */
+    private static final int FIELD_SIZE = 8;
+
+    private static final String JDK_PACKAGE = "java.";
+
+    private final Predicate<Object> shared;
+
+    /**
+     * @param shared matches the objects that are shared with other connections (or owned by a third party library)
+     *            and thus not counted, in addition to the classes, the enums, the loggers and the mocks
+     */
+    RetainedSizeEstimator(Predicate<Object> shared)
+    {
+        this.shared = shared;
+    }
+
+    /**
+     * @param root the object to measure
+     * @return the estimated number of bytes retained by the given object
+     */
+    long estimate(Object root)
+    {
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Object> objects = new ArrayDeque<>();
+        objects.push(root);
+        long size = 0;
+        while (!objects.isEmpty()) {
+            Object object = objects.pop();
+            if (visited.add(object) && !isShared(object)) {
+                size += estimateShallowSize(object, objects);
+            }
+        }
+        return size;
+    }
+
+    private boolean isShared(Object object)
+    {
+        return object instanceof Class || object instanceof Enum || object instanceof Logger
+            || Mockito.mockingDetails(object).isMock()
+            || this.shared.test(object);
+    }
+
+    private long estimateShallowSize(Object object, Deque<Object> references)
+    {
+        if (object instanceof String) {
+            return HEADER_SIZE + FIELD_SIZE + HEADER_SIZE + ((String) object).length();
+        } else if (object.getClass().isArray()) {
+            int length = Array.getLength(object);
+            if (object.getClass().getComponentType().isPrimitive()) {
+                return HEADER_SIZE + (long) length * FIELD_SIZE;
+            }
+            for (int i = 0; i < length; i++) {
+                push(Array.get(object, i), references);
+            }
+            return HEADER_SIZE + (long) length * FIELD_SIZE;
+        } else if (object instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) object;
+            map.forEach((key, value) -> {
+                push(key, references);
+                push(value, references);
+            });
+            // The map itself, its table and its entries, plus the fields of the subclasses (e.g. the XWiki context).
+            return HEADER_SIZE * 2 + map.size() * (HEADER_SIZE + FIELD_SIZE * 5L)
+                + estimateFieldsSize(object, references, true);
+        } else if (object instanceof Collection) {
+            Collection<?> collection = (Collection<?>) object;
+            collection.forEach(element -> push(element, references));
+            return HEADER_SIZE + collection.size() * (long) FIELD_SIZE + estimateFieldsSize(object, references, true);
+        }
+
+        return estimateFieldsSize(object, references, false);
+    }
+
+    private long estimateFieldsSize(Object object, Deque<Object> references, boolean skipJdkFields)
+    {
+        long size = HEADER_SIZE;
+        for (Class<?> type = object.getClass(); type != null; type = type.getSuperclass()) {
+            if (skipJdkFields && type.getName().startsWith(JDK_PACKAGE)) {
+                // Already counted by the caller.
+                break;
+            }
+            for (Field field : type.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    size += FIELD_SIZE;
+                    if (!field.getType().isPrimitive()) {
+                        push(getFieldValue(field, object), references);
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
+    private Object getFieldValue(Field field, Object object)
+    {
+        try {
+            field.setAccessible(true);
+            return field.get(object);
+        } catch (Exception e) {
+            // Not accessible (e.g. JDK internals).
+            return null;
+        }
+    }
+
+    private void push(Object object, Deque<Object> references)
+    {
+        if (object != null) {
+            references.push(object);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.io.DataInputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Answers;
+import org.slf4j.LoggerFactory;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.contrib.websocket.WebSocket;
+import org.xwiki.contrib.websocket.WebSocketConfig;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link TcpWebSocketRelay}, using two cluster nodes running in the same JVM.
+ * 
+ * @version $Id$
+ */
+class TcpWebSocketRelayTest
+{
+    private static final String SECRET = "secret";
+
+    private static final String LOCALHOST = "127.0.0.1";
+
+    private static final String ROOM = "room";
+
+    private static final long TIMEOUT = 10000;
+
+    private final List<TcpWebSocketRelay> relays = new ArrayList<>();
+
+    @AfterEach
+    void afterEach()
+    {
+        this.relays.forEach(TcpWebSocketRelay::dispose);
+    }
+
+    @Test
+    void broadcastToOtherNode() throws Exception
+    {
+        int port = getFreePort();
+        TcpWebSocketRelay secondRelay = newRelay(port);
+        DefaultWebSocketRoomManager second = newRoomManager(secondRelay);
+        // The second node is listed twice so it receives each message twice, like after a reconnection.
+        TcpWebSocketRelay firstRelay = newRelay(getFreePort(), LOCALHOST + ':' + port, "localhost:" + port);
+        DefaultWebSocketRoomManager first = newRoomManager(firstRelay);
+        waitForPeers(firstRelay, 2);
+
+        WebSocket alice = mock(WebSocket.class);
+        WebSocket bob = mock(WebSocket.class);
+        first.join(ROOM, alice);
+        second.join(ROOM, bob);
+
+        assertEquals(0, first.broadcast(ROOM, "hello", alice));
+        verify(bob, timeout(TIMEOUT)).send("hello");
+        // The duplicate is ignored.
+        verify(bob, after(1000).times(1)).send("hello");
+        verify(alice, never()).send(anyString());
+    }
+
+    @Test
+    void slowDeliveryDoesntStallTheRelay() throws Exception
+    {
+        int port = getFreePort();
+        CountDownLatch delivering = new CountDownLatch(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        newRelay(port).start(message -> {
+            delivering.countDown();
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        TcpWebSocketRelay firstRelay = newRelay(getFreePort(), LOCALHOST + ':' + port);
+        firstRelay.start(message -> { });
+        waitForPeers(firstRelay, 1);
+
+        firstRelay.publish(new WebSocketRelayMessage("id", ROOM, true, new byte[] {1}));
+        assertTrue(delivering.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        // The node whose delivery is blocked still authenticates the nodes that connect to it.
+        TcpWebSocketRelay secondRelay = newRelay(getFreePort(), LOCALHOST + ':' + port);
+        secondRelay.start(message -> { });
+        waitForPeers(secondRelay, 1);
+
+        blocked.countDown();
+    }
+
+    @Test
+    void rejectNodeWithoutSecret() throws Exception
+    {
+        int port = getFreePort();
+        AtomicInteger received = new AtomicInteger();
+        newRelay(port).start(message -> received.incrementAndGet());
+
+        try (Socket socket = new Socket(LOCALHOST, port)) {
+            socket.setSoTimeout((int) TIMEOUT);
+            DataInputStream input = new DataInputStream(socket.getInputStream());
+            byte[] nonce = new byte[32];
+            input.readFully(nonce);
+
+            // Answer with the nonce of the other node instead of an HMAC.
+            socket.getOutputStream().write(nonce);
+            socket.getOutputStream().write(nonce);
+            assertEquals(-1, input.read());
+        }
+        assertEquals(0, received.get());
+    }
+
+    @Test
+    void rejectReflectedProof() throws Exception
+    {
+        try (ServerSocket fakeNode = new ServerSocket(0)) {
+            fakeNode.setSoTimeout((int) TIMEOUT);
+            TcpWebSocketRelay relay = newRelay(getFreePort(), LOCALHOST + ':' + fakeNode.getLocalPort());
+            relay.start(message -> { });
+
+            try (Socket socket = fakeNode.accept()) {
+                socket.setSoTimeout((int) TIMEOUT);
+                DataInputStream input = new DataInputStream(socket.getInputStream());
+                socket.getOutputStream().write(new byte[32]);
+                byte[] nonce = new byte[32];
+                input.readFully(nonce);
+                byte[] proof = new byte[32];
+                input.readFully(proof);
+
+                // Send back the proof of the connecting node as if it was ours.
+                socket.getOutputStream().write(proof);
+                assertEquals(-1, input.read());
+            }
+            assertEquals(0, relay.getPeerCount());
+        }
+    }
+
+    private TcpWebSocketRelay newRelay(int port, String... peers)
+    {
+        WebSocketConfig config = mock(WebSocketConfig.class, Answers.CALLS_REAL_METHODS);
+        when(config.maxFrameSize()).thenReturn(65536);
+        when(config.getClusterPort()).thenReturn(port);
+        when(config.getClusterPeers()).thenReturn(Arrays.asList(peers));
+        when(config.getClusterSecret()).thenReturn(SECRET);
+
+        TcpWebSocketRelay relay = new TcpWebSocketRelay();
+        ReflectionUtils.setFieldValue(relay, "config", config);
+        ReflectionUtils.setFieldValue(relay, "logger", LoggerFactory.getLogger(TcpWebSocketRelay.class));
+        this.relays.add(relay);
+        return relay;
+    }
+
+    private DefaultWebSocketRoomManager newRoomManager(WebSocketRelay relay) throws Exception
+    {
+        WebSocketConfig config = mock(WebSocketConfig.class);
+        when(config.getClusterRelay()).thenReturn("tcp");
+        ComponentManager componentManager = mock(ComponentManager.class);
+        when(componentManager.getInstance(WebSocketRelay.class, "tcp")).thenReturn(relay);
+
+        DefaultWebSocketRoomManager roomManager = new DefaultWebSocketRoomManager();
+        ReflectionUtils.setFieldValue(roomManager, "config", config);
+        ReflectionUtils.setFieldValue(roomManager, "componentManager", componentManager);
+        ReflectionUtils.setFieldValue(roomManager, "logger",
+            LoggerFactory.getLogger(DefaultWebSocketRoomManager.class));
+        roomManager.initialize();
+        return roomManager;
+    }
+
+    private void waitForPeers(TcpWebSocketRelay relay, int count) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (relay.getPeerCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, relay.getPeerCount());
+    }
+
+    private int getFreePort() throws Exception
+    {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.Cookie;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.contrib.websocket.WebSocketConfig;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link WebSocketAuthenticationCache}.
+ * 
+ * @version $Id$
+ */
+@ComponentTest
+class WebSocketAuthenticationCacheTest
+{
+    private static final String ADDRESS = "10.0.0.1";
+
+    private static final DocumentReference ALICE = new DocumentReference("wiki", "XWiki", "Alice");
+
+    @MockComponent
+    private WebSocketConfig config;
+
+    @MockComponent
+    private CacheManager cacheManager;
+
+    @InjectMockComponents
+    private WebSocketAuthenticationCache authenticationCache;
+
+    @BeforeComponent
+    @SuppressWarnings("unchecked")
+    void configure() throws Exception
+    {
+        when(this.config.isAuthenticationCacheEnabled()).thenReturn(true);
+        when(this.config.getAuthenticationCacheSize()).thenReturn(100);
+        when(this.config.getAuthenticationCookies()).thenReturn(Arrays.asList("username", "validation"));
+
+        Map<String, Object> entries = new HashMap<>();
+        Cache<Object> cache = mock(Cache.class);
+        when(cache.get(anyString())).then(invocation -> entries.get(invocation.getArgument(0)));
+        doAnswer(invocation -> entries.put(invocation.getArgument(0), invocation.getArgument(1))).when(cache)
+            .set(anyString(), any());
+        doAnswer(invocation -> {
+            entries.clear();
+            return null;
+        }).when(cache).removeAll();
+        when(this.cacheManager.createNewCache(any())).thenReturn(cache);
+    }
+
+    @Test
+    void hitAndMiss()
+    {
+        String key = this.authenticationCache.getKey(newRequest("wiki", ADDRESS, "alice", "token"));
+        assertNull(this.authenticationCache.get(key));
+        this.authenticationCache.set(key, ALICE);
+
+        assertEquals(ALICE, this.authenticationCache.get(
+            this.authenticationCache.getKey(newRequest("wiki", ADDRESS, "alice", "token"))));
+        assertNull(this.authenticationCache.get(
+            this.authenticationCache.getKey(newRequest("wiki", ADDRESS, "alice", "other"))));
+        assertNull(this.authenticationCache.get(
+            this.authenticationCache.getKey(newRequest("other", ADDRESS, "alice", "token"))));
+
+        assertEquals(1, this.authenticationCache.getHitCount());
+        assertEquals(3, this.authenticationCache.getMissCount());
+    }
+
+    @Test
+    void missFromAnotherAddress()
+    {
+        String key = this.authenticationCache.getKey(newRequest("wiki", ADDRESS, "alice", "token"));
+        this.authenticationCache.set(key, ALICE);
+
+        // The same cookies replayed from another address must be validated again.
+        String otherKey = this.authenticationCache.getKey(newRequest("wiki", "10.0.0.2", "alice", "token"));
+        assertNotEquals(key, otherKey);
+        assertNull(this.authenticationCache.get(otherKey));
+    }
+
+    @Test
+    void noKeyWithoutCookies()
+    {
+        assertNull(this.authenticationCache.getKey(newRequest("wiki", ADDRESS)));
+    }
+
+    @Test
+    void invalidate()
+    {
+        String key = this.authenticationCache.getKey(newRequest("wiki", ADDRESS, "alice", "token"));
+        this.authenticationCache.set(key, ALICE);
+        assertEquals(ALICE, this.authenticationCache.get(key));
+
+        this.authenticationCache.invalidate();
+        assertNull(this.authenticationCache.get(key));
+    }
+
+    private XWikiWebSocketRequest newRequest(String wiki, String address, String... cookieValues)
+    {
+        XWikiWebSocketRequest request = mock(XWikiWebSocketRequest.class);
+        when(request.getWebSocketURI()).thenReturn(new WebSocketURI("ws://localhost/", wiki, "handler"));
+        when(request.getRemoteAddr()).thenReturn(address);
+        if (cookieValues.length > 0) {
+            when(request.getCookie("username")).thenReturn(new Cookie("username", cookieValues[0]));
+            when(request.getCookie("validation")).thenReturn(new Cookie("validation", cookieValues[1]));
+        }
+        return request;
+    }
+}
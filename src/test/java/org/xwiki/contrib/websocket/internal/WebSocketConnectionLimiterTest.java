@@ -0,0 +1,90 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.net.InetAddress;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.contrib.websocket.WebSocketConfig;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link WebSocketConnectionLimiter}.
+ * 
+ * @version $Id$
+ */
+@ComponentTest
+class WebSocketConnectionLimiterTest
+{
+    @MockComponent
+    private WebSocketConfig config;
+
+    @InjectMockComponents
+    private WebSocketConnectionLimiter limiter;
+
+    @BeforeComponent
+    void configure()
+    {
+        when(this.config.getMaxConnections()).thenReturn(3);
+        when(this.config.getMaxConnectionsPerAddress()).thenReturn(2);
+        when(this.config.getMaxConnectionsPerUser()).thenReturn(1);
+    }
+
+    @Test
+    void limitConnections() throws Exception
+    {
+        InetAddress first = InetAddress.getByName("10.0.0.1");
+        InetAddress second = InetAddress.getByName("10.0.0.2");
+
+        assertTrue(this.limiter.acquireConnection(first));
+        assertTrue(this.limiter.acquireConnection(first));
+        assertFalse(this.limiter.acquireConnection(first));
+
+        assertTrue(this.limiter.acquireConnection(second));
+        assertFalse(this.limiter.acquireConnection(second));
+        assertEquals(3, this.limiter.getConnectionCount());
+
+        this.limiter.releaseConnection(first);
+        assertTrue(this.limiter.acquireConnection(second));
+        assertEquals(2, this.limiter.getRejectedConnectionCount());
+    }
+
+    @Test
+    void limitUserConnections()
+    {
+        DocumentReference alice = new DocumentReference("wiki", "XWiki", "Alice");
+
+        assertTrue(this.limiter.acquireUserConnection(alice));
+        assertFalse(this.limiter.acquireUserConnection(alice));
+        assertTrue(this.limiter.acquireUserConnection(new DocumentReference("wiki", "XWiki", "Bob")));
+
+        this.limiter.releaseUserConnection(alice);
+        assertTrue(this.limiter.acquireUserConnection(alice));
+    }
+}
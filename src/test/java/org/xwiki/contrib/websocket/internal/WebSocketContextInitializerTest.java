@@ -0,0 +1,192 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.xwiki.container.Container;
+import org.xwiki.container.Request;
+import org.xwiki.container.Response;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.util.XWikiStubContextProvider;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link WebSocketContextInitializer}.
+ * 
+ * @version $Id$
+ */
+@ComponentTest
+class WebSocketContextInitializerTest
+{
+    private static final String WIKI = "wiki";
+
+    @InjectMockComponents
+    private WebSocketContextInitializer initializer;
+
+    @MockComponent
+    private XWikiStubContextProvider contextProvider;
+
+    @MockComponent
+    private Execution execution;
+
+    @MockComponent
+    private Container container;
+
+    @MockComponent
+    private WebSocketAuthenticationCache authenticationCache;
+
+    private final Request request = mock(Request.class);
+
+    private final Response response = mock(Response.class);
+
+    /**
+     * The execution context pushed last.
+     */
+    private ExecutionContext pushedContext;
+
+    @BeforeEach
+    void configure()
+    {
+        doAnswer(invocation -> {
+            this.pushedContext = invocation.getArgument(0);
+            return null;
+        }).when(this.execution).pushContext(any());
+    }
+
+    @Test
+    void initializeAndCleanup() throws Exception
+    {
+        XWikiWebSocketRequest webSocketRequest = mock(XWikiWebSocketRequest.class);
+        when(webSocketRequest.getWebSocketURI()).thenReturn(new WebSocketURI("/xwiki/websocket/" + WIKI + "/chat"));
+        XWikiContext xcontext = mock(XWikiContext.class);
+        when(this.contextProvider.createStubContext()).thenReturn(xcontext);
+        DocumentReference alice = new DocumentReference(WIKI, "XWiki", "Alice");
+        when(this.authenticationCache.getKey(webSocketRequest)).thenReturn("key");
+        when(this.authenticationCache.get("key")).thenReturn(alice);
+
+        this.initializer.initialize(webSocketRequest);
+        this.initializer.cleanup();
+
+        verify(xcontext).setWikiId(WIKI);
+        verify(xcontext).setUserReference(alice);
+        verify(xcontext).declareInExecutionContext(this.pushedContext);
+        InOrder inOrder = inOrder(this.execution, this.container);
+        inOrder.verify(this.execution).pushContext(any());
+        inOrder.verify(this.container).pushRequest(any());
+        inOrder.verify(this.container).pushResponse(any());
+        inOrder.verify(this.container).popResponse();
+        inOrder.verify(this.container).popRequest();
+        inOrder.verify(this.execution).popContext();
+    }
+
+    @Test
+    void runPushesAndPopsTheContext()
+    {
+        WebSocketContextInitializer.Snapshot snapshot = newSnapshot();
+
+        this.initializer.run(snapshot, () -> {
+            assertEquals(WIKI, getCallbackContext().getWikiId());
+        });
+
+        verifyPushedAndPopped();
+    }
+
+    @Test
+    void runPopsTheContextWhenTheCallbackFails()
+    {
+        WebSocketContextInitializer.Snapshot snapshot = newSnapshot();
+
+        assertThrows(IllegalStateException.class, () -> this.initializer.run(snapshot, () -> {
+            throw new IllegalStateException();
+        }));
+
+        verifyPushedAndPopped();
+    }
+
+    @Test
+    void callbacksDontShareTheirContext()
+    {
+        WebSocketContextInitializer.Snapshot snapshot = newSnapshot();
+        XWikiContext[] callbackContexts = new XWikiContext[2];
+
+        this.initializer.run(snapshot, () -> {
+            XWikiContext xcontext = getCallbackContext();
+            xcontext.setWikiId("other");
+            xcontext.put("key", "value");
+            callbackContexts[0] = xcontext;
+        });
+        this.initializer.run(snapshot, () -> {
+            XWikiContext xcontext = getCallbackContext();
+            assertEquals(WIKI, xcontext.getWikiId());
+            assertNull(xcontext.get("key"));
+            callbackContexts[1] = xcontext;
+        });
+
+        assertNotSame(callbackContexts[0], callbackContexts[1]);
+    }
+
+    private WebSocketContextInitializer.Snapshot newSnapshot()
+    {
+        ExecutionContext handshakeContext = new ExecutionContext();
+        XWikiContext xcontext = new XWikiContext();
+        xcontext.setWikiId(WIKI);
+        xcontext.declareInExecutionContext(handshakeContext);
+        when(this.execution.getContext()).thenReturn(handshakeContext);
+        when(this.container.getRequest()).thenReturn(this.request);
+        when(this.container.getResponse()).thenReturn(this.response);
+
+        return this.initializer.snapshot();
+    }
+
+    private XWikiContext getCallbackContext()
+    {
+        return (XWikiContext) this.pushedContext.getProperty(XWikiContext.EXECUTIONCONTEXT_KEY);
+    }
+
+    private void verifyPushedAndPopped()
+    {
+        InOrder inOrder = inOrder(this.execution, this.container);
+        inOrder.verify(this.execution).pushContext(any());
+        inOrder.verify(this.container).pushRequest(this.request);
+        inOrder.verify(this.container).pushResponse(this.response);
+        inOrder.verify(this.container).popResponse();
+        inOrder.verify(this.container).popRequest();
+        inOrder.verify(this.execution).popContext();
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.component.descriptor.ComponentDescriptor;
+import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.component.event.ComponentDescriptorRemovedEvent;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.contrib.websocket.WebSocketHandler;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWikiContext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link WebSocketHandlerCache} and {@link WebSocketHandlerCacheListener}.
+ * 
+ * @version $Id$
+ */
+@ComponentTest
+class WebSocketHandlerCacheTest
+{
+    private static final String HINT = "chat";
+
+    @MockComponent
+    private CacheManager cacheManager;
+
+    @MockComponent
+    @Named("context")
+    private Provider<ComponentManager> componentManagerProvider;
+
+    @MockComponent
+    @Named("wiki")
+    private Provider<ComponentManager> wikiComponentManagerProvider;
+
+    @MockComponent
+    private Provider<XWikiContext> xcontextProvider;
+
+    @InjectMockComponents
+    private WebSocketHandlerCache handlerCache;
+
+    private final Map<String, Object> entries = new HashMap<>();
+
+    private final ComponentManager componentManager = mock(ComponentManager.class, "context");
+
+    private final ComponentManager wikiComponentManager = mock(ComponentManager.class, "wiki");
+
+    private final XWikiContext xcontext = mock(XWikiContext.class);
+
+    private final WebSocketHandler handler = mock(WebSocketHandler.class);
+
+    private final WebSocketHandlerCacheListener listener = new WebSocketHandlerCacheListener();
+
+    @BeforeComponent
+    @SuppressWarnings("unchecked")
+    void configure() throws Exception
+    {
+        Cache<Object> cache = mock(Cache.class);
+        when(cache.get(anyString())).then(invocation -> this.entries.get(invocation.getArgument(0)));
+        doAnswer(invocation -> this.entries.put(invocation.getArgument(0), invocation.getArgument(1))).when(cache)
+            .set(anyString(), any());
+        doAnswer(invocation -> {
+            this.entries.clear();
+            return null;
+        }).when(cache).removeAll();
+        when(this.cacheManager.createNewCache(any())).thenReturn(cache);
+    }
+
+    @BeforeEach
+    void beforeEach()
+    {
+        when(this.componentManagerProvider.get()).thenReturn(this.componentManager);
+        when(this.wikiComponentManagerProvider.get()).thenReturn(this.wikiComponentManager);
+        when(this.xcontextProvider.get()).thenReturn(this.xcontext);
+        when(this.xcontext.getWikiId()).thenReturn("wiki");
+
+        Provider<WebSocketHandlerCache> handlerCacheProvider = () -> this.handlerCache;
+        ReflectionUtils.setFieldValue(this.listener, "handlerCacheProvider", handlerCacheProvider);
+    }
+
+    @Test
+    void hit() throws Exception
+    {
+        register(ComponentInstantiationStrategy.SINGLETON);
+
+        assertSame(this.handler, this.handlerCache.getHandler(HINT));
+        // The cache doesn't depend on the current user.
+        when(this.xcontext.getUserReference()).thenReturn(new DocumentReference("wiki", "XWiki", "Alice"));
+        assertSame(this.handler, this.handlerCache.getHandler(HINT));
+
+        verify(this.wikiComponentManager).getInstance(WebSocketHandler.class, HINT);
+        assertEquals(1, this.handlerCache.getHitCount());
+        assertEquals(1, this.handlerCache.getMissCount());
+
+        // Another wiki.
+        when(this.xcontext.getWikiId()).thenReturn("other");
+        assertSame(this.handler, this.handlerCache.getHandler(HINT));
+        assertEquals(2, this.handlerCache.getMissCount());
+    }
+
+    @Test
+    void perLookupHandler() throws Exception
+    {
+        register(ComponentInstantiationStrategy.PER_LOOKUP);
+        when(this.componentManager.getInstance(WebSocketHandler.class, HINT)).thenReturn(this.handler);
+
+        assertSame(this.handler, this.handlerCache.getHandler(HINT));
+        assertSame(this.handler, this.handlerCache.getHandler(HINT));
+
+        verify(this.componentManager).getInstance(WebSocketHandler.class, HINT);
+        assertEquals(0, this.handlerCache.getHitCount());
+    }
+
+    @Test
+    void unknownHandlerIsNotCached() throws Exception
+    {
+        assertNull(this.handlerCache.getHandler("unknown"));
+        assertNull(this.handlerCache.getHandler("unknown"));
+
+        assertEquals(0, this.handlerCache.getHitCount());
+        assertEquals(2, this.handlerCache.getMissCount());
+        assertEquals(0, this.entries.size());
+    }
+
+    @Test
+    void userHandlerIsNotCached() throws Exception
+    {
+        registerForUser(this.handler);
+
+        assertSame(this.handler, this.handlerCache.getHandler(HINT));
+        assertSame(this.handler, this.handlerCache.getHandler(HINT));
+
+        verify(this.componentManager, times(2)).getInstance(WebSocketHandler.class, HINT);
+        assertEquals(0, this.entries.size());
+    }
+
+    @Test
+    void invalidateWhenHandlerIsAddedOrRemoved() throws Exception
+    {
+        assertNull(this.handlerCache.getHandler(HINT));
+
+        register(ComponentInstantiationStrategy.SINGLETON);
+        this.listener.onEvent(new ComponentDescriptorAddedEvent(WebSocketHandler.class), this.wikiComponentManager,
+            null);
+        assertSame(this.handler, this.handlerCache.getHandler(HINT));
+
+        when(this.wikiComponentManager.getComponentDescriptor(WebSocketHandler.class, HINT)).thenReturn(null);
+        when(this.componentManager.getComponentDescriptor(WebSocketHandler.class, HINT)).thenReturn(null);
+        // The removed handler is not returned anymore, even before the cache is invalidated.
+        assertNull(this.handlerCache.getHandler(HINT));
+        this.listener.onEvent(new ComponentDescriptorRemovedEvent(WebSocketHandler.class), this.wikiComponentManager,
+            null);
+        assertEquals(0, this.entries.size());
+    }
+
+    @Test
+    void userHandlerHasPrecedenceOverCachedHandler() throws Exception
+    {
+        ComponentDescriptor<WebSocketHandler> wikiDescriptor = register(ComponentInstantiationStrategy.SINGLETON);
+        assertSame(this.handler, this.handlerCache.getHandler(HINT));
+
+        WebSocketHandler userHandler = mock(WebSocketHandler.class, "user");
+        registerForUser(userHandler);
+        assertSame(userHandler, this.handlerCache.getHandler(HINT));
+
+        // The handler registered for the wiki is still cached.
+        when(this.componentManager.getComponentDescriptor(WebSocketHandler.class, HINT)).thenReturn(wikiDescriptor);
+        assertSame(this.handler, this.handlerCache.getHandler(HINT));
+        verify(this.wikiComponentManager).getInstance(WebSocketHandler.class, HINT);
+        assertEquals(1, this.handlerCache.getHitCount());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void registerForUser(WebSocketHandler userHandler) throws Exception
+    {
+        // The user handler has the same implementation as the wiki one but a distinct descriptor.
+        ComponentDescriptor<WebSocketHandler> descriptor = mock(ComponentDescriptor.class, "user");
+        when(this.componentManager.getComponentDescriptor(WebSocketHandler.class, HINT)).thenReturn(descriptor);
+        when(this.componentManager.getInstance(WebSocketHandler.class, HINT)).thenReturn(userHandler);
+    }
+
+    @SuppressWarnings("unchecked")
+    private ComponentDescriptor<WebSocketHandler> register(ComponentInstantiationStrategy instantiationStrategy)
+        throws Exception
+    {
+        ComponentDescriptor<WebSocketHandler> descriptor = mock(ComponentDescriptor.class);
+        when(descriptor.getInstantiationStrategy()).thenReturn(instantiationStrategy);
+        when(this.wikiComponentManager.getComponentDescriptor(WebSocketHandler.class, HINT)).thenReturn(descriptor);
+        when(this.wikiComponentManager.getInstance(WebSocketHandler.class, HINT)).thenReturn(this.handler);
+        // The context component manager falls back on the wiki component manager.
+        when(this.componentManager.getComponentDescriptor(WebSocketHandler.class, HINT)).thenReturn(descriptor);
+        return descriptor;
+    }
+}
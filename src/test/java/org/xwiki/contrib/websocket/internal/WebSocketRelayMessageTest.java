@@ -0,0 +1,80 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link WebSocketRelayMessage}.
+ * 
+ * @version $Id$
+ */
+class WebSocketRelayMessageTest
+{
+    @Test
+    void writeAndRead() throws Exception
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new WebSocketRelayMessage("id", "room", true, new byte[] {1, 2}).writeTo(new DataOutputStream(output));
+
+        WebSocketRelayMessage message = WebSocketRelayMessage.readFrom(newInput(output.toByteArray()), 2);
+
+        assertEquals("id", message.getId());
+        assertEquals("room", message.getRoom());
+        assertTrue(message.isText());
+        assertArrayEquals(new byte[] {1, 2}, message.getPayload());
+    }
+
+    @Test
+    void rejectInvalidSize() throws Exception
+    {
+        assertThrows(IOException.class, () -> WebSocketRelayMessage.readFrom(newInput(serialize(-1)), 10));
+        assertThrows(IOException.class, () -> WebSocketRelayMessage.readFrom(newInput(serialize(11)), 10));
+        assertThrows(IOException.class,
+            () -> WebSocketRelayMessage.readFrom(newInput(serialize(Integer.MAX_VALUE)), 10));
+    }
+
+    private byte[] serialize(int payloadSize) throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        DataOutputStream dataOutput = new DataOutputStream(output);
+        dataOutput.writeUTF("id");
+        dataOutput.writeUTF("room");
+        dataOutput.writeBoolean(false);
+        dataOutput.writeInt(payloadSize);
+        return output.toByteArray();
+    }
+
+    private DataInputStream newInput(byte[] bytes)
+    {
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.websocket.internal;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Unit tests for {@link WriteBatchingHandler}.
+ * 
+ * @version $Id$
+ */
+class WriteBatchingHandlerTest
+{
+    @Test
+    void flushAtReadComplete()
+    {
+        // Echo the received messages.
+        EmbeddedChannel channel = new EmbeddedChannel(new WriteBatchingHandler(100, 1000),
+            new ChannelInboundHandlerAdapter()
+            {
+                @Override
+                public void channelRead(ChannelHandlerContext context, Object message)
+                {
+                    context.writeAndFlush(message);
+                }
+            });
+
+        channel.pipeline().fireChannelRead(buffer("one"));
+        channel.pipeline().fireChannelRead(buffer("two"));
+        channel.runPendingTasks();
+        assertNull(channel.readOutbound());
+
+        channel.pipeline().fireChannelReadComplete();
+        assertOutbound(channel, "one", "two");
+
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void scheduleFlushOutsideRead()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(new WriteBatchingHandler(100, 1000));
+
+        channel.writeAndFlush(buffer("one"));
+        channel.writeAndFlush(buffer("two"));
+        assertNull(channel.readOutbound());
+
+        channel.runPendingTasks();
+        assertOutbound(channel, "one", "two");
+
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void flushWhenTooManyMessages()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(new WriteBatchingHandler(2, 1000));
+
+        channel.writeAndFlush(buffer("one"));
+        assertNull(channel.readOutbound());
+
+        channel.writeAndFlush(buffer("two"));
+        assertOutbound(channel, "one", "two");
+
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void flushWhenTooManyBytes()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(new WriteBatchingHandler(100, 6));
+
+        channel.writeAndFlush(buffer("one"));
+        assertNull(channel.readOutbound());
+
+        channel.writeAndFlush(buffer("two"));
+        assertOutbound(channel, "one", "two");
+
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void flushOnClose()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(new WriteBatchingHandler(100, 1000));
+
+        channel.writeAndFlush(buffer("one"));
+        channel.close();
+
+        assertFalse(channel.isOpen());
+        assertOutbound(channel, "one");
+
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void flushWhenNotWritable()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(new WriteBatchingHandler(100, 1000));
+        channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(1, 2));
+
+        channel.writeAndFlush(buffer("one"));
+        assertFalse(channel.isWritable());
+        assertNull(channel.readOutbound());
+
+        channel.pipeline().fireChannelWritabilityChanged();
+        assertOutbound(channel, "one");
+
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void preserveWriteOrder()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(new WriteBatchingHandler(3, 1000));
+
+        // Mix writes without flush, scheduled flushes and immediate flushes.
+        channel.write(buffer("one"));
+        channel.writeAndFlush(buffer("two"));
+        channel.writeAndFlush(buffer("three"));
+        channel.writeAndFlush(buffer("four"));
+        channel.runPendingTasks();
+
+        assertOutbound(channel, "one", "two", "three", "four");
+
+        channel.finishAndReleaseAll();
+    }
+
+    private ByteBuf buffer(String content)
+    {
+        return Unpooled.copiedBuffer(content, StandardCharsets.UTF_8);
+    }
+
+    private void assertOutbound(EmbeddedChannel channel, String... expectedMessages)
+    {
+        for (String expectedMessage : expectedMessages) {
+            ByteBuf message = channel.readOutbound();
+            assertEquals(expectedMessage, message.toString(StandardCharsets.UTF_8));
+            message.release();
+        }
+        assertNull(channel.readOutbound());
+    }
+}